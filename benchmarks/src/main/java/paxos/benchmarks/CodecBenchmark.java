@@ -0,0 +1,78 @@
+package paxos.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import paxos.codec.Codec;
+import paxos.codec.JavaSerializationCodec;
+import paxos.codec.RawBytesCodec;
+import paxos.communication.Member;
+import paxos.messages.Accept;
+import paxos.messages.MessageCodec;
+import paxos.messages.Success;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of encoding an ACCEPT and decoding a SUCCESS carrying an {@link Order}, for each way of encoding
+ * the payload. Run {@link MessageSizes} for the number of bytes each of them puts on the wire.
+ *
+ * <pre>
+ * mvn -f benchmarks/pom.xml package && java -jar benchmarks/target/benchmarks.jar
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    /**
+     * <ul>
+     *  <li>none: the order is carried inside the envelope, as a group without codec does</li>
+     *  <li>java: {@link JavaSerializationCodec}</li>
+     *  <li>order: {@link OrderCodec}, a hand written codec</li>
+     *  <li>raw: {@link RawBytesCodec}, the application broadcasts bytes it encoded itself</li>
+     * </ul>
+     */
+    @Param({"none", "java", "order", "raw"})
+    public String codecName;
+
+    private Codec codec;
+    private Serializable message;
+    private Member sender;
+    private byte[] success;
+
+    @Setup
+    public void setUp() throws Exception {
+        Order order = new Order(123456789l, "ACC-0042-EU", "ACME", 1500, 10125l, System.currentTimeMillis());
+        sender = new Member(InetAddress.getByName("10.0.0.1"), 2440);
+        codec = createCodec(codecName);
+        message = codecName.equals("raw") ? new OrderCodec().encode(order) : order;
+        success = MessageCodec.encode(new Success(1000l, encodePayload(), 42l));
+    }
+
+    static Codec createCodec(String name) {
+        if (name.equals("none")) return null;
+        if (name.equals("java")) return new JavaSerializationCodec();
+        if (name.equals("order")) return new OrderCodec();
+        if (name.equals("raw")) return new RawBytesCodec();
+        throw new IllegalArgumentException(name);
+    }
+
+    @Benchmark
+    public byte[] encodeAccept() {
+        return MessageCodec.encode(new Accept(7l, 1000l, encodePayload(), 42l, sender));
+    }
+
+    @Benchmark
+    public Serializable decodeSuccess() {
+        Serializable payload = ((Success) MessageCodec.decode(success)).message;
+        return (codec == null) ? payload : codec.decode((byte[]) payload);
+    }
+
+    private Serializable encodePayload() {
+        return (codec == null) ? message : codec.encode(message);
+    }
+}
@@ -0,0 +1,110 @@
+package paxos.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import paxos.communication.RingBuffer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of handing a message over to another thread, as the receiving threads of the UDPMessenger do
+ * with the dispatching thread. Each operation sends a message to an echo thread and waits for it to come back, so it
+ * is two hand-offs.
+ *
+ * <pre>
+ * mvn -f benchmarks/pom.xml package && java -jar benchmarks/target/benchmarks.jar HandOffBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandOffBenchmark {
+    /**
+     * <ul>
+     *  <li>linked: the LinkedBlockingQueue the messenger used before</li>
+     *  <li>spin, yield, park: a {@link RingBuffer} with the matching wait strategy</li>
+     * </ul>
+     */
+    @Param({"linked", "spin", "yield", "park"})
+    public String queueName;
+
+    private static final byte[] MESSAGE = new byte[64];
+    private Channel requests;
+    private Channel responses;
+    private Thread echo;
+
+    @Setup
+    public void setUp() {
+        requests = createChannel(queueName);
+        responses = createChannel(queueName);
+        echo = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) responses.put(requests.take());
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        };
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        echo.interrupt();
+        echo.join();
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws InterruptedException {
+        requests.put(MESSAGE);
+        return responses.take();
+    }
+
+    static Channel createChannel(String name) {
+        if (name.equals("linked")) return new QueueChannel();
+        if (name.equals("spin")) return new RingChannel(RingBuffer.WaitStrategy.BUSY_SPIN);
+        if (name.equals("yield")) return new RingChannel(RingBuffer.WaitStrategy.YIELD);
+        if (name.equals("park")) return new RingChannel(RingBuffer.WaitStrategy.PARK);
+        throw new IllegalArgumentException(name);
+    }
+
+    interface Channel {
+        void put(byte[] message) throws InterruptedException;
+        byte[] take() throws InterruptedException;
+    }
+
+    static class QueueChannel implements Channel {
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+
+        public void put(byte[] message) throws InterruptedException {
+            queue.put(message);
+        }
+
+        public byte[] take() throws InterruptedException {
+            return queue.take();
+        }
+    }
+
+    static class RingChannel implements Channel {
+        private final RingBuffer<byte[]> ring;
+
+        RingChannel(RingBuffer.WaitStrategy waitStrategy) {
+            ring = new RingBuffer<byte[]>(1024, waitStrategy, RingBuffer.OverflowPolicy.BLOCK);
+        }
+
+        public void put(byte[] message) throws InterruptedException {
+            ring.offer(message);
+        }
+
+        public byte[] take() throws InterruptedException {
+            return ring.take();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package paxos.benchmarks;
+
+/**
+ * Prints the number of bytes of the ACCEPT messages encoded by {@link CodecBenchmark} for each codec.
+ */
+public class MessageSizes {
+    public static void main(String[] args) throws Exception {
+        for (String codecName : new String[] {"none", "java", "order", "raw"}) {
+            CodecBenchmark benchmark = new CodecBenchmark();
+            benchmark.codecName = codecName;
+            benchmark.setUp();
+            System.out.println(codecName + ": " + benchmark.encodeAccept().length + " bytes per ACCEPT");
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package paxos.benchmarks;
+
+import java.io.Serializable;
+
+/**
+ * A small record of the kind applications typically broadcast.
+ */
+public class Order implements Serializable {
+    public final long id;
+    public final String account;
+    public final String symbol;
+    public final int quantity;
+    public final long price;
+    public final long timestamp;
+
+    public Order(long id, String account, String symbol, int quantity, long price, long timestamp) {
+        this.id = id;
+        this.account = account;
+        this.symbol = symbol;
+        this.quantity = quantity;
+        this.price = price;
+        this.timestamp = timestamp;
+    }
+}
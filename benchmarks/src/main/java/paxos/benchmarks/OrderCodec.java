@@ -0,0 +1,40 @@
+package paxos.benchmarks;
+
+import paxos.codec.Codec;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A hand written codec standing for the user supplied ones.
+ */
+public class OrderCodec implements Codec {
+    public byte[] encode(Serializable message) {
+        Order order = (Order) message;
+        byte[] account = order.account.getBytes(StandardCharsets.UTF_8);
+        byte[] symbol = order.symbol.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + account.length + 2 + symbol.length + 4 + 8 + 8);
+        buffer.putLong(order.id);
+        buffer.putShort((short) account.length).put(account);
+        buffer.putShort((short) symbol.length).put(symbol);
+        buffer.putInt(order.quantity);
+        buffer.putLong(order.price);
+        buffer.putLong(order.timestamp);
+        return buffer.array();
+    }
+
+    public Serializable decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long id = buffer.getLong();
+        String account = readString(buffer);
+        String symbol = readString(buffer);
+        return new Order(id, account, symbol, buffer.getInt(), buffer.getLong(), buffer.getLong());
+    }
+
+    private String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,10 +1,13 @@
 package paxos;
 
+import paxos.communication.BufferPool;
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
 import paxos.messages.*;
 
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -14,11 +17,32 @@ import java.util.concurrent.atomic.AtomicLong;
  * <ul>
  *  <li>NEW_VIEW: a member is asking to become the leader</li>
  *  <li>ACCEPT: the leader (or a member thinking it is a leader) asks members to accept a message</li>
+ *  <li>ACCEPT_RANGE: the same, for a run of consecutive sequence numbers, answered with a single ACCEPTED</li>
  *  <li>SUCCESS: the leader is telling us that a majority of members have accepted the message</li>
+ *  <li>HEARTBEAT: the leader is telling us up to which sequence number everything is decided</li>
+ *  <li>BUSY: the leader could not take one of our requests</li>
  * </ul>
+ *
+ * The reply to NEW_VIEW only reports what was accepted after the sequence number the new leader has committed, in
+ * chunks of at most {@link #VIEW_ACCEPTED_CHUNK} acceptances, so its size does not depend on the length of the log.
+ *
+ * The replies to ACCEPT and SUCCESS are encoded into pooled buffers, so that in the steady state answering the
+ * leader does not allocate. Every ACCEPTED also tells the highest sequence number up to which everything was accepted
+ * in the leader's view or decided, so that the leader can count a single reply for many slots.
+ *
+ * The leader does not send the decided messages again. Its ACCEPTs and heartbeats tell up to which sequence number
+ * everything is decided, and what we accepted in the leader's view up to there is delivered. Anything else up to
+ * there is reported as missing in the next ACCEPTED, and the leader sends it in a SUCCESS. A heartbeat is answered
+ * with an ACCEPTED for no sequence number, so that the leader learns what we delivered even when it proposes nothing.
+ *
+ * A leader with too many requests waiting answers BUSY, and the client then waits before asking again, starting from
+ * {@link #MIN_BACKOFF} milliseconds and doubling up to {@link #MAX_BACKOFF} while the leader stays busy.
  */
 public class AcceptorLogic {
     public static final long MAX_CIRCULATING_MESSAGES = 1000000l;
+    public static final int VIEW_ACCEPTED_CHUNK = 64;
+    public static final long MIN_BACKOFF = 10;
+    public static final long MAX_BACKOFF = 1000;
     private final GroupMembership membership;
     private final CommLayer messenger;
     private final BufferedReceiver receiver;
@@ -26,10 +50,12 @@ public class AcceptorLogic {
     private final WaitingRoom waitingForResponse = new WaitingRoom();
     private final int myPositionInGroup;
 
-    Map<Long, Acceptance> accepted = new HashMap<Long, Acceptance>(); // what we accepted for each seqNo
+    TreeMap<Long, Acceptance> accepted = new TreeMap<Long, Acceptance>(); // what we accepted for each seqNo
     private Member leader;
     private long viewNumber;
     private MissingMessagesTracker missing = new MissingMessagesTracker(); // missing SUCCESS messages
+    private long acceptedUpTo = -1; // every seqNo up to it was accepted in acceptedUpToView, or decided
+    private long acceptedUpToView = -1;
     private AtomicLong msgIdGen = new AtomicLong(0);
 
 
@@ -45,18 +71,25 @@ public class AcceptorLogic {
     /**
      * Invoked when a client wants to send a message to the group. Regardless of whether this member is the leader,
      * a message will be sent to the leader to request a consensus algorithm to be initiated and the thread will block until
-     * the consensus completes.
+     * the consensus completes. While the leader is busy, the thread blocks longer before each new request.
      *
      * @param message the message to be broadcast
      */
     public void broadcast(Serializable message) {
         long msgId = createMsgId(message);
         boolean broadcastSuccessful = false;
+        long backoff = 0;
         try {
             while (!broadcastSuccessful) {
 //                System.out.println("sending request to " + leader);
-                messenger.sendTo(leader, PaxosUtils.serialize(new BroadcastRequest(message, msgId)));
+                if (backoff > 0) Thread.sleep(backoff);
+                messenger.sendTo(leader, MessageCodec.encode(new BroadcastRequest(message, msgId), membership));
                 broadcastSuccessful = waitingForResponse.waitALittle(msgId);
+                if (waitingForResponse.wasTurnedAway(msgId)) {
+                    backoff = Math.min(Math.max(backoff * 2, MIN_BACKOFF), MAX_BACKOFF);
+                } else {
+                    backoff = 0;
+                }
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -72,13 +105,16 @@ public class AcceptorLogic {
      *
      * @param message
      */
-    public void dispatch(Serializable message) {
+    public synchronized void dispatch(Serializable message) {
         if (message instanceof SpecialMessage) {
             SpecialMessage specialMessage = (SpecialMessage) message;
             switch (specialMessage.getMessageType()) {
                 case NEW_VIEW: onNewView((NewView) specialMessage); break;
                 case ACCEPT: onAccept((Accept) specialMessage); break;
+                case ACCEPT_RANGE: onAcceptRange((AcceptRange) specialMessage); break;
                 case SUCCESS: onSuccess((Success) specialMessage); break;
+                case HEARTBEAT: onHeartbeat((Heartbeat) specialMessage); break;
+                case BUSY: waitingForResponse.turnAway(((Busy) specialMessage).msgId); break;
             }
         }
     }
@@ -94,12 +130,41 @@ public class AcceptorLogic {
             System.out.println(me + ": setting leader to " + newView.leader);
             this.leader = newView.leader;
             this.viewNumber = newView.viewNumber;
-            messenger.sendTo(leader, PaxosUtils.serialize(new ViewAccepted(viewNumber, accepted, me)));
+            sendViewAccepted(newView.committed);
         } else if (newView.viewNumber == viewNumber && newView.leader.equals(leader)) {
-            messenger.sendTo(leader, PaxosUtils.serialize(new ViewAccepted(viewNumber, accepted, me)));
+            sendViewAccepted(newView.committed);
         }
     }
 
+    private void sendViewAccepted(long committed) {
+        SortedMap<Long, Acceptance> toReport = accepted.tailMap(committed + 1);
+        int chunks = Math.max(1, (toReport.size() + VIEW_ACCEPTED_CHUNK - 1) / VIEW_ACCEPTED_CHUNK);
+        Map<Long, Acceptance> chunk = new HashMap<Long, Acceptance>();
+        int chunkNo = 0;
+        for (Map.Entry<Long, Acceptance> entry : toReport.entrySet()) {
+            chunk.put(entry.getKey(), entry.getValue());
+            if (chunk.size() == VIEW_ACCEPTED_CHUNK) {
+                messenger.sendTo(leader, MessageCodec.encode(new ViewAccepted(viewNumber, chunk, me, chunkNo++, chunks), membership));
+                chunk = new HashMap<Long, Acceptance>();
+            }
+        }
+        if (chunkNo < chunks) messenger.sendTo(leader, MessageCodec.encode(new ViewAccepted(viewNumber, chunk, me, chunkNo, chunks), membership));
+    }
+
+    /**
+     * @return the sequence number up to which all messages have been decided, as far as this member knows
+     */
+    public synchronized long getCommitted() {
+        return missing.getTail() - 1;
+    }
+
+    /**
+     * @return the message decided for the sequence number, if it is not after {@link #getCommitted()}
+     */
+    public synchronized Acceptance getDecided(long seqNo) {
+        return (seqNo <= getCommitted()) ? accepted.get(seqNo) : null;
+    }
+
     /**
      * A member that believes to be a leader is asking us to accept a message. If it is an old leader, we will reject.
      *
@@ -107,23 +172,132 @@ public class AcceptorLogic {
      */
     private void onAccept(Accept accept) {
         if (accept.viewNo < viewNumber) {
-            messenger.sendTo(accept.sender, PaxosUtils.serialize(new Abort(accept.viewNo, accept.seqNo)));
+            sendAbort(accept.sender, accept.viewNo, accept.seqNo);
         } else {
             accepted.put(accept.seqNo, new Acceptance(accept.viewNo, accept.message, accept.msgId));
-            messenger.sendTo(accept.sender, PaxosUtils.serialize(new Accepted(accept.viewNo, accept.seqNo, accept.msgId, missing.getMissing(accept.seqNo), me)));
+            deliverUpTo(accept.viewNo, accept.committed);
+            sendAccepted(accept.sender, accept.viewNo, accept.seqNo, accept.msgId, Math.min(accept.seqNo, accept.committed + 1));
+        }
+    }
+
+    /**
+     * Like {@link #onAccept(Accept)} for every sequence number of the range, with a single reply for the last one.
+     *
+     * @param range
+     */
+    private void onAcceptRange(AcceptRange range) {
+        if (range.viewNo < viewNumber) {
+            for (long seqNo = range.firstSeqNo; seqNo <= range.getLastSeqNo(); seqNo++) sendAbort(range.sender, range.viewNo, seqNo);
+        } else {
+            for (int i = 0; i < range.size(); i++) {
+                accepted.put(range.firstSeqNo + i, new Acceptance(range.viewNo, range.messages.get(i), range.msgIds[i]));
+            }
+            deliverUpTo(range.viewNo, range.committed);
+            sendAccepted(range.sender, range.viewNo, range.getLastSeqNo(), range.msgIds[range.size() - 1], Math.min(range.firstSeqNo, range.committed + 1));
+        }
+    }
+
+    /**
+     * The leader is telling us what is decided without proposing anything. Heartbeats of other members carry nothing
+     * committed.
+     *
+     * @param heartbeat
+     */
+    private void onHeartbeat(Heartbeat heartbeat) {
+        if (heartbeat.committed < 0 || heartbeat.viewNo < viewNumber) return;
+        deliverUpTo(heartbeat.viewNo, heartbeat.committed);
+        sendAccepted(heartbeat.sender, heartbeat.viewNo, -1, 0, heartbeat.committed + 1);
+    }
+
+    /**
+     * Delivers what we accepted in the view, up to the sequence number the leader of the view has committed.
+     * What we accepted in other views may not be what was decided, and waits for a SUCCESS.
+     *
+     * Only the acceptances that were not delivered yet are visited: the runs already delivered are skipped as a whole,
+     * so a member stuck behind a gap does not walk again every slot after it on each message.
+     */
+    private void deliverUpTo(long viewNo, long committed) {
+        long seqNo = missing.getNextMissing(missing.getTail());
+        while (seqNo <= committed) {
+            Map.Entry<Long, Acceptance> entry = accepted.ceilingEntry(seqNo);
+            if (entry == null || entry.getKey() > committed) return;
+            seqNo = missing.getNextMissing(entry.getKey());
+            if (seqNo != entry.getKey()) continue; // already delivered
+            Acceptance acceptance = entry.getValue();
+            if (acceptance.viewNumber == viewNo) deliver(seqNo, acceptance.message, acceptance.msgId);
+            seqNo++;
+        }
+    }
+
+    private void sendAbort(Member leader, long viewNo, long seqNo) {
+        ByteBuffer reply = BufferPool.acquire();
+        MessageCodec.encodeAbort(reply, viewNo, seqNo);
+        reply.flip();
+        messenger.sendTo(leader, reply);
+    }
+
+    /**
+     * @param missingBefore the messages missing before this sequence number are reported
+     */
+    private void sendAccepted(Member leader, long viewNo, long seqNo, long msgId, long missingBefore) {
+        ByteBuffer reply = BufferPool.acquire();
+        Set<Long> missingSuccess = missing.getMissing(missingBefore);
+        long upTo = acceptedUpTo(viewNo);
+        try {
+            MessageCodec.encodeAccepted(reply, viewNo, seqNo, msgId, missingSuccess, me, upTo, getCommitted(), membership);
+        } catch (BufferOverflowException e) {
+            // too many missing messages to fit in a pooled buffer
+            BufferPool.release(reply);
+            messenger.sendTo(leader, MessageCodec.encode(new Accepted(viewNo, seqNo, msgId, missingSuccess, me, upTo, getCommitted()), membership));
+            return;
         }
+        reply.flip();
+        messenger.sendTo(leader, reply);
     }
 
     /**
-     * The leader is telling us that a majority has accepted a message. If there is a client waiting for consensus to
-     * complete, we unblock it. We also tell the leader that we got the success message, so it can do garbage collection.
+     * @return the highest seqNo up to which every seqNo was either accepted in the view or decided
+     */
+    private long acceptedUpTo(long viewNo) {
+        if (viewNo != acceptedUpToView) {
+            acceptedUpToView = viewNo;
+            acceptedUpTo = -1;
+        }
+        acceptedUpTo = Math.max(acceptedUpTo, getCommitted());
+        while (true) {
+            Acceptance next = accepted.get(acceptedUpTo + 1);
+            if (next == null || next.viewNumber != viewNo) return acceptedUpTo;
+            acceptedUpTo++;
+        }
+    }
+
+    /**
+     * The leader is sending us a message that was decided and that we reported missing.
      *
      * @param success
      */
     private void onSuccess(Success success) {
-        receiver.receive(success.seqNo, success.message);
-        missing.received(success.seqNo);
-        waitingForResponse.unblock(success.msgId);
-        messenger.sendTo(leader, PaxosUtils.serialize(new SuccessAck(success.msgId, me)));
+        if (missing.isReceived(success.seqNo)) return;
+        Acceptance acceptance = accepted.get(success.seqNo);
+        if (acceptance == null || acceptance.msgId != success.msgId) {
+            // remember what was decided, in case we become the leader and others ask for it
+            accepted.put(success.seqNo, new Acceptance(viewNumber, success.message, success.msgId));
+        }
+        deliver(success.seqNo, success.message, success.msgId);
+    }
+
+    /**
+     * Delivers a decided message. If there is a client waiting for consensus to complete, we unblock it.
+     */
+    private void deliver(long seqNo, Serializable message, long msgId) {
+        if (missing.isReceived(seqNo)) return;
+        receiver.receive(seqNo, message);
+        missing.received(seqNo);
+        if (message instanceof Batch) {
+            Batch batch = (Batch) message;
+            for (int i = 0; i < batch.size(); i++) waitingForResponse.unblock(batch.getMsgId(i));
+        } else {
+            waitingForResponse.unblock(msgId);
+        }
     }
 }
@@ -1,7 +1,11 @@
 package paxos;
 
+import paxos.codec.Codec;
+import paxos.codec.DecodingReceiver;
 import paxos.communication.CommLayer;
 import paxos.communication.UDPMessenger;
+import paxos.messages.MessageCodec;
+import paxos.messages.SpecialMessage;
 
 import java.io.Serializable;
 import java.net.SocketException;
@@ -15,6 +19,9 @@ import java.net.UnknownHostException;
  * {@link paxos.fragmentation.FragmentingGroup} might be a better choice because it should deal better
  * with unreliable communication.
  *
+ * Messages are carried with Java serialization unless the group is created with a {@link Codec}, in which case every
+ * broadcast message is encoded once by the sender and decoded only by the receivers.
+ *
  * This class does not persist state, thus it doesn't support recovery of members.
  *
  * @see paxos.dynamic.DynamicGroup
@@ -25,6 +32,8 @@ public class BasicGroup implements CommLayer.MessageListener {
     private final LeaderLogic leaderLogic;
     private final FailureDetector failureDetector;
     private final CommLayer commLayer;
+    private final GroupMembership membership;
+    private final Codec codec;
 
     public BasicGroup(GroupMembership membership, Receiver receiver) throws SocketException, UnknownHostException {
         this(membership, new UDPMessenger(membership.getUID().getPort()), receiver);
@@ -34,10 +43,21 @@ public class BasicGroup implements CommLayer.MessageListener {
         this(membership, commLayer, receiver, System.currentTimeMillis());
     }
 
+    public BasicGroup(GroupMembership membership, CommLayer commLayer, Receiver receiver, Codec codec) {
+        this(membership, commLayer, receiver, System.currentTimeMillis(), codec);
+    }
+
     public BasicGroup(GroupMembership membership, CommLayer commLayer, Receiver receiver, long time) {
+        this(membership, commLayer, receiver, time, null);
+    }
+
+    public BasicGroup(GroupMembership membership, CommLayer commLayer, Receiver receiver, long time, Codec codec) {
         this.commLayer = commLayer;
-        this.leaderLogic = new LeaderLogic(membership, commLayer, time);
+        this.membership = membership;
+        this.codec = codec;
+        if (codec != null && receiver != null) receiver = new DecodingReceiver(codec, receiver);
         this.acceptorLogic = new AcceptorLogic(membership, commLayer, receiver);
+        this.leaderLogic = new LeaderLogic(membership, commLayer, time, acceptorLogic);
         this.failureDetector = new FailureDetector(membership, commLayer, leaderLogic);
 
         this.commLayer.setListener(this);
@@ -50,9 +70,34 @@ public class BasicGroup implements CommLayer.MessageListener {
      * @param message
      */
     public void broadcast(Serializable message) {
+        if (codec != null) {
+            acceptorLogic.broadcast(codec.encode(message));
+        } else {
+            acceptorLogic.broadcast(message);
+        }
+    }
+
+    /**
+     * Like {@link #broadcast(java.io.Serializable)}, but the bytes are carried through the protocol as they are and
+     * delivered to the receivers as a <code>byte[]</code>, without being serialized or deserialized by any member on
+     * the way. Use a {@link ByteReceiverAdapter} to receive them. If the group has a {@link Codec} the bytes must be
+     * in its format, since the receivers will decode them.
+     *
+     * @param message
+     */
+    public void broadcast(byte[] message) {
         acceptorLogic.broadcast(message);
     }
 
+    /**
+     * Sets the number of slots the leader lets wait for their majority at the same time, when this member leads.
+     *
+     * @see LeaderLogic#setWindow(int)
+     */
+    public void setWindow(int slots) {
+        leaderLogic.setWindow(slots);
+    }
+
     public void close() {
         commLayer.close();
     }
@@ -64,10 +109,45 @@ public class BasicGroup implements CommLayer.MessageListener {
     }
 
     /**
-     * Will be invoked by the @{@link CommLayer} upon receiving a message.
+     * Will be invoked by the @{@link CommLayer} upon receiving a message. Protocol messages are routed by the type in
+     * their header to the one component that handles them, which decodes only what it needs.
      * @param message
      */
     public void receive(byte[] message) {
-        dispatch((Serializable) PaxosUtils.deserialize(message));
+        SpecialMessage.MessageType type = MessageCodec.peekType(message);
+        if (type == null) {
+            dispatch(MessageCodec.decode(message, membership));
+            return;
+        }
+        switch (type) {
+            case HEARTBEAT:
+                Serializable heartbeat = MessageCodec.decode(message, membership);
+                failureDetector.dispatch(heartbeat);
+                acceptorLogic.dispatch(heartbeat); // the leader's tell what is decided
+                break;
+            case ACCEPT:
+            case ACCEPT_RANGE:
+            case SUCCESS:
+            case BUSY:
+                acceptorLogic.dispatch(MessageCodec.decode(message, membership));
+                break;
+            case NEW_VIEW:
+                Serializable newView = MessageCodec.decode(message, membership);
+                leaderLogic.dispatch(newView);
+                acceptorLogic.dispatch(newView);
+                break;
+            default:
+                leaderLogic.receive(message);
+        }
+    }
+
+    /**
+     * Will be invoked periodically by the @{@link CommLayer} to let the leader resend requests and the failure detector
+     * send heartbeats and detect failed members.
+     * @param time
+     */
+    public void tick(long time) {
+        leaderLogic.update(time);
+        failureDetector.update(time);
     }
 }
@@ -1,5 +1,6 @@
 package paxos;
 
+import paxos.messages.Batch;
 import paxos.messages.NoOp;
 
 import java.io.Serializable;
@@ -8,7 +9,8 @@ import java.util.Map;
 
 /**
  * Receives unordered messages with sequence numbers and invokes the receiver in the correct
- * represented by the sequence number.
+ * represented by the sequence number. The messages of a {@link Batch} are delivered one by one, in the order of the
+ * batch.
  */
 public class BufferedReceiver {
     private final Receiver receiver;
@@ -35,10 +37,17 @@ public class BufferedReceiver {
             receiverBuffer.put(seqNo, message);
             while (receiverBuffer.containsKey(receivedNo + 1)) {
                 receivedNo++;
-                Serializable messageToDeliver = receiverBuffer.get(receivedNo);
-                if (!(messageToDeliver instanceof NoOp)) receiver.receive(messageToDeliver);
-                receiverBuffer.remove(receivedNo);
+                deliver(receiverBuffer.remove(receivedNo));
             }
         }
     }
+
+    private void deliver(Serializable message) {
+        if (message instanceof Batch) {
+            Batch batch = (Batch) message;
+            for (int i = 0; i < batch.size(); i++) deliver(batch.getMessage(i));
+        } else if (!(message instanceof NoOp)) {
+            receiver.receive(message);
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package paxos;
+
+/**
+ * Receives messages that were broadcast with {@link BasicGroup#broadcast(byte[])}. The bytes are delivered exactly as
+ * they were broadcast; decoding them is up to the application.
+ *
+ * @see ByteReceiverAdapter
+ */
+public interface ByteReceiver {
+    void receive(byte[] message);
+}
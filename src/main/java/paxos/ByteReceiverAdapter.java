@@ -0,0 +1,22 @@
+package paxos;
+
+import java.io.Serializable;
+
+/**
+ * Lets a {@link ByteReceiver} be plugged into a group. Only messages that were broadcast as byte arrays are passed on.
+ */
+public class ByteReceiverAdapter implements Receiver {
+    private final ByteReceiver receiver;
+
+    public ByteReceiverAdapter(ByteReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    public void receive(Serializable message) {
+        if (message instanceof byte[]) {
+            receiver.receive((byte[]) message);
+        } else {
+            System.out.println("don't know about " + message);
+        }
+    }
+}
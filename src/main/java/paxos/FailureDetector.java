@@ -2,8 +2,8 @@ package paxos;
 
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
 import paxos.messages.Heartbeat;
+import paxos.messages.MessageCodec;
 
 import java.io.Serializable;
 import java.util.*;
@@ -35,7 +35,7 @@ public class FailureDetector {
 
         membersAlive.addAll(membership.getMembers());
 
-        heartbeat = PaxosUtils.serialize(new Heartbeat(membership.getUID()));
+        heartbeat = MessageCodec.encode(new Heartbeat(membership.getUID()), membership);
     }
 
     private void sendHeartbeat(long time) {
@@ -75,8 +75,6 @@ public class FailureDetector {
         if (message instanceof Heartbeat) {
             Heartbeat heartbeat = (Heartbeat) message;
             lastHeardFrom.put(heartbeat.sender, time);
-        } else if (message instanceof Tick) {
-            update(((Tick) message).time);
         }
     }
 }
@@ -7,21 +7,30 @@ import java.util.List;
 
 /**
  * Represents the members of the group. The members should not change.
+ *
+ * Protocol messages refer to members by their position in the sorted list along with the epoch of the membership,
+ * so all the members of a group must be created with the same list and epoch.
  */
 public class GroupMembership {
     private final List<Member> members;
     private final Member me;
     private final int positionInGroup;
+    private final long epoch;
 
     public GroupMembership(List<Member> members, int i) {
         this(members, members.get(i));
     }
 
     public GroupMembership(List<Member> members, Member me) {
+        this(members, me, 0);
+    }
+
+    public GroupMembership(List<Member> members, Member me, long epoch) {
         this.members = members;
         Collections.sort(members);
         this.me = me;
         this.positionInGroup = findPositionInGroup(me, members);
+        this.epoch = epoch;
     }
 
     public Member getUID() {
@@ -40,6 +49,18 @@ public class GroupMembership {
         return positionInGroup;
     }
 
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the position of the member in the group, or -1 if it is not a member
+     */
+    public int indexOf(Member member) {
+        int i = Collections.binarySearch(members, member);
+        return (i >= 0 && members.get(i).equals(member)) ? i : -1;
+    }
+
     public static int findPositionInGroup(Member me, List<Member> sortedMembers) {
         for (int i = 0; i < sortedMembers.size(); i++) {
             if (sortedMembers.get(i).equals(me)) return i;
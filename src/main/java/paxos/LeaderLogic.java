@@ -2,7 +2,6 @@ package paxos;
 
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
 import paxos.messages.*;
 
 import java.io.Serializable;
@@ -14,21 +13,65 @@ import java.util.*;
  * When a member thinks it should be a leader will start an election.
  * This consists in sending a NEW_VIEW message to all members and collecting the responses. If a majority of members
  * responds with a VIEW_ACCEPTED, the member becomes the leader. Responses are collected through the MultiRequest.
+ * The NEW_VIEW carries the sequence number up to which the local acceptor has seen every message decided: nothing up
+ * to it needs to be proposed again, so the members only report what they accepted after it.
  *
  * When a member asks for a message to be broadcast, the leader will send an ACCEPT message to all members. Members will
- * either respond with ACCEPTED or ABORT in case there is a newer leader. If a majority of members responds with
- * ACCEPTED, we will broadcast the SUCCESS message to let the members know of the consensus outcome.
+ * either respond with ACCEPTED or ABORT in case there is a newer leader. Once a majority of members responds with
+ * ACCEPTED the message is decided. Rather than sending it again in a SUCCESS, the leader tells the members up to which
+ * sequence number everything is decided, on its next ACCEPT or, if there is none to send, on a heartbeat, and the
+ * members deliver what they accepted. Members missing some of it report so in their ACCEPTED and get a SUCCESS. The
+ * heartbeat is repeated every {@link MultiRequest#RESEND_INTERVAL} while a member has not reported having delivered
+ * everything. Decided messages are kept until all members have delivered them.
+ *
+ * Slots proposed together, after an election or when several batches are ready, go out as ACCEPT_RANGE messages of
+ * consecutive sequence numbers of at most {@link #MAX_RANGE_BYTES}. An ACCEPTED counts for its own slot and for every
+ * slot up to the one the member says it has accepted everything up to, so one reply can bring many slots to a majority.
+ *
+ * The leader keeps, for each member, the next sequence number to send it and the one it has accepted everything up to.
+ * An ACCEPTED is matched against the slots between the latter and what the reply acknowledges, so its cost depends on
+ * what it acknowledges and not on how many slots are in flight. Every {@link MultiRequest#RESEND_INTERVAL} the slots a
+ * member has not acknowledged yet are sent to it again, as long as they have not been decided.
+ *
+ * Requests arriving while an ACCEPT is waiting for its majority are held back and proposed together as a
+ * {@link Batch} in the next slot, as soon as that majority is reached or the batch is full. Failing both, they are
+ * proposed by the first {@link #update(long) update} after they have waited {@link #MAX_BATCH_DELAY} milliseconds, so
+ * with updates every {@link paxos.communication.UDPMessenger#UPDATE_PERIOD} milliseconds they may wait that long. An
+ * idle group still proposes each request as soon as it arrives.
+ *
+ * At most a window of slots ({@link #DEFAULT_WINDOW} unless {@link #setWindow(int) configured}) are waiting for their
+ * majority at any time; requests beyond it wait for a slot to be decided. When {@link #MAX_QUEUED_REQUESTS} are
+ * waiting, new requests are answered with BUSY so that their members back off instead of asking again every second.
  */
 public class LeaderLogic implements FailureListener {
+    public static final int MAX_BATCH_MESSAGES = 64;
+    public static final int MAX_BATCH_BYTES = 16 * 1024;
+    public static final long MAX_BATCH_DELAY = 10;
+    public static final int MAX_RANGE_BYTES = 16 * 1024;
+    public static final int DEFAULT_WINDOW = 64;
+    public static final int MAX_QUEUED_REQUESTS = 1024;
+    private static final int MAX_ACCEPTS_IN_FLIGHT = 1;
     private static final NoOp NO_OP = new NoOp();
     private final GroupMembership membership;
     private final CommLayer messenger;
     private final Member me;
-    private final Map<Long, Proposal> proposals = new HashMap<Long, Proposal>();
-    private final Map<Long, Serializable> successfulMessages = new HashMap<Long, Serializable>();
+    private final AcceptorLogic acceptor;
+    final TreeMap<Long, Proposal> proposals = new TreeMap<Long, Proposal>(); // what is proposed for each seqNo not forgotten yet
+    private final SortedMap<Long, Serializable> successfulMessages = new TreeMap<Long, Serializable>();
     private final Map<Long, Long> successfulMsgIds = new HashMap<Long, Long>();
+    private final SortedSet<Long> decidedAhead = new TreeSet<Long>(); // decided after decidedUpTo
+    private final Map<Member, Follower> followers = new HashMap<Member, Follower>();
     private final HashSet<Long> messagesCirculating = new HashSet<Long>(); // msgIds of messages that were not
-    private final List<MultiRequest> assistants = new LinkedList<MultiRequest>();
+    private final List<Election> elections = new LinkedList<Election>();
+    private final SortedMap<Long, Slot> slotsInFlight = new TreeMap<Long, Slot>(); // proposals of this view without a majority yet
+    private final LinkedList<PendingRequest> pendingRequests = new LinkedList<PendingRequest>();
+    private int pendingBytes = 0;
+    private long pendingSince;
+    private int window = DEFAULT_WINDOW;
+    private long forgottenUpTo = -1; // every seqNo up to it was delivered by all members and forgotten
+    private long decidedUpTo = -1; // everything up to it is decided
+    private long announcedUpTo = -1;
+    private long lastAnnounced;
 
     private long viewNumber = 0;
     private long seqNo = 0;
@@ -36,16 +79,35 @@ public class LeaderLogic implements FailureListener {
     private long time;
 
     public LeaderLogic(GroupMembership membership, CommLayer commLayer, long time) {
+        this(membership, commLayer, time, null);
+    }
+
+    /**
+     * @param acceptor the acceptor of this member, which tells what has been committed. Without it everything is
+     *                 assumed to be uncommitted.
+     */
+    public LeaderLogic(GroupMembership membership, CommLayer commLayer, long time, AcceptorLogic acceptor) {
         this.membership = membership;
         this.messenger = commLayer;
         this.time = time;
+        this.acceptor = acceptor;
         this.me = membership.getUID();
         Member leader = PaxosUtils.selectLeader(membership.getMembers());
         if (leader.equals(me)) {
-            assistants.add(new Election(membership, messenger, time, viewNumber + newViewNumber()));
+            elections.add(new Election(membership, messenger, time, viewNumber + newViewNumber(), committed()));
         }
     }
 
+    /**
+     * Sets the number of slots that may be waiting for their majority at the same time. Slots proposed again after an
+     * election are not limited.
+     */
+    public synchronized void setWindow(int slots) {
+        if (slots < 1) throw new IllegalArgumentException("The window must hold at least one slot");
+        this.window = slots;
+        proposePendingRequests(false);
+    }
+
     /**
      * Invoked when a message is received from a member of the group.
      *
@@ -56,29 +118,112 @@ public class LeaderLogic implements FailureListener {
             SpecialMessage specialMessage = (SpecialMessage) message;
             switch (specialMessage.getMessageType()) {
                 case ABORT: onAbort((Abort) specialMessage); break;
-                case BROADCAST_REQ: onBroadcastRequest((BroadcastRequest) specialMessage); break;
+                case ACCEPTED: onAccepted((Accepted) specialMessage); break;
+                case BROADCAST_REQ: onBroadcastRequest((BroadcastRequest) specialMessage, 0); break;
                 case NEW_VIEW: onNewView((NewView) specialMessage); break;
             }
-        } else if (message instanceof Tick) {
-            update((Tick) message);
         }
-        for (MultiRequest assistant : new ArrayList<MultiRequest>(assistants)) {
-            assistant.receive(message);
-            if (assistant.isFinished()) assistants.remove(assistant);
+        if (message instanceof ViewAccepted) {
+            for (Election election : new ArrayList<Election>(elections)) {
+                election.receive(message);
+                if (election.isFinished()) elections.remove(election);
+            }
+        }
+        if (iAmElected && announcedUpTo < decidedUpTo) announceDecided();
+    }
+
+    /**
+     * Invoked with an encoded message addressed to the leader. Replies that cannot concern any pending request are
+     * recognized from the header and dropped without being decoded.
+     *
+     * @param message
+     */
+    public synchronized void receive(byte[] message) {
+        SpecialMessage.MessageType type = MessageCodec.peekType(message);
+        if (type != null && isStale(type, MessageCodec.peekViewNumber(message), MessageCodec.peekSeqNo(message))) return;
+        if (type == SpecialMessage.MessageType.BROADCAST_REQ) {
+            // the size of the encoded request is what it will add to a batch
+            onBroadcastRequest((BroadcastRequest) MessageCodec.decode(message, membership), message.length);
+        } else {
+            dispatch(MessageCodec.decode(message, membership));
+        }
+    }
+
+    private boolean isStale(SpecialMessage.MessageType type, long viewNo, long seqNo) {
+        switch (type) {
+            case ACCEPTED: return viewNo != viewNumber;
+            case ABORT: return seqNo <= forgottenUpTo || !proposals.containsKey(seqNo); // decided, or aborted already
+            case VIEW_ACCEPTED:
+                for (Election election : elections) {
+                    if (election.viewNumber == viewNo) return false;
+                }
+                return true;
+            default: return false;
+        }
+    }
+
+    public synchronized void update(long time) {
+        this.time = time;
+        for (Election election : elections) {
+            election.tick(time);
+        }
+        for (Follower follower : followers.values()) {
+            if (time > follower.lastSent + MultiRequest.RESEND_INTERVAL) resendAccepts(follower);
+        }
+        if (!pendingRequests.isEmpty() && time - pendingSince >= MAX_BATCH_DELAY) proposePendingRequests(true);
+        if (iAmElected && time - lastAnnounced > MultiRequest.RESEND_INTERVAL && isAnyMemberBehind()) announceDecided();
+    }
+
+    private boolean isAnyMemberBehind() {
+        for (Member member : membership.getMembers()) {
+            if (follower(member).delivered < decidedUpTo) return true;
         }
+        return false;
+    }
+
+    private Follower follower(Member member) {
+        Follower follower = followers.get(member);
+        if (follower == null) followers.put(member, follower = new Follower(member));
+        return follower;
+    }
+
+    private void announceDecided() {
+        messenger.sendTo(membership.getMembers(), MessageCodec.encode(new Heartbeat(me, viewNumber, decidedUpTo), membership));
+        announcedUpTo = decidedUpTo;
+        lastAnnounced = time;
+    }
+
+    private void decided(long seqNo) {
+        decidedAhead.add(seqNo);
+        while (decidedAhead.remove(decidedUpTo + 1)) decidedUpTo++;
     }
 
-    public synchronized void update(Tick tick) {
-        this.time = tick.time;
-        for (MultiRequest assistant : assistants) {
-            assistant.tick(tick.time);
+    /**
+     * Forgets the messages that all members have delivered.
+     */
+    private void collectGarbage() {
+        long delivered = Long.MAX_VALUE;
+        for (Member member : membership.getMembers()) {
+            delivered = Math.min(delivered, follower(member).delivered);
         }
+        SortedMap<Long, Serializable> forgotten = successfulMessages.headMap(delivered + 1);
+        for (Map.Entry<Long, Serializable> entry : forgotten.entrySet()) {
+            messagesCirculating.removeAll(msgIdsOf(entry.getValue(), successfulMsgIds.remove(entry.getKey())));
+        }
+        forgotten.clear();
+        proposals.headMap(delivered + 1).clear();
+        forgottenUpTo = Math.max(forgottenUpTo, delivered);
     }
 
     private void onNewView(NewView msg) {
         if (msg.viewNumber > this.viewNumber) {
             this.viewNumber = msg.viewNumber;
-            if (!msg.leader.equals(me)) this.iAmElected = false;
+            if (!msg.leader.equals(me)) {
+                this.iAmElected = false;
+                dropPendingRequests(); // their members will ask the new leader
+                slotsInFlight.clear(); // the new leader proposes them again if they were accepted
+                for (Follower follower : followers.values()) follower.startView();
+            }
         }
     }
 
@@ -86,26 +231,204 @@ public class LeaderLogic implements FailureListener {
         abortBallot(abort.seqNo);
     }
 
+    private void onAccepted(Accepted accepted) {
+        if (accepted.viewNo != viewNumber) return;
+        sendMissingSuccessMessages(accepted.missingSuccess, accepted.sender);
+        Follower follower = follower(accepted.sender);
+        List<Slot> decidedSlots = new ArrayList<Slot>();
+        Slot slot = slotsInFlight.get(accepted.seqNo);
+        if (slot != null) slot.acceptedBy(follower.member, decidedSlots);
+        if (accepted.acceptedUpTo > follower.matchIndex) {
+            for (Slot acknowledged : slotsInFlight.subMap(follower.matchIndex + 1, accepted.acceptedUpTo + 1).values()) {
+                acknowledged.acceptedBy(follower.member, decidedSlots);
+            }
+            follower.matchIndex = accepted.acceptedUpTo;
+        }
+        if (follower.delivered < accepted.committed) {
+            follower.delivered = accepted.committed;
+            collectGarbage();
+        }
+        for (Slot decided : decidedSlots) onDecided(decided);
+        if (!decidedSlots.isEmpty()) proposePendingRequests(true);
+    }
+
+    private void onDecided(Slot slot) {
+        successfulMessages.put(slot.seqNo, slot.message);
+        successfulMsgIds.put(slot.seqNo, slot.msgId);
+        slotsInFlight.remove(slot.seqNo);
+        decided(slot.seqNo);
+    }
+
     private void sendMissingSuccessMessages(Set<Long> missingSuccess, Member sender) {
         for (Long seqNo : missingSuccess) {
             if (successfulMessages.containsKey(seqNo)) {
                 Success message = new Success(seqNo, successfulMessages.get(seqNo), successfulMsgIds.get(seqNo));
-                messenger.sendTo(sender, PaxosUtils.serialize(message));
+                messenger.sendTo(sender, MessageCodec.encode(message, membership));
+            } else if (acceptor != null) {
+                // decided before we became the leader
+                Acceptance decided = acceptor.getDecided(seqNo);
+                if (decided != null) messenger.sendTo(sender, MessageCodec.encode(new Success(seqNo, decided.message, decided.msgId), membership));
             }
         }
     }
 
-    private void onBroadcastRequest(BroadcastRequest req) {
+    private long committed() {
+        return (acceptor == null) ? -1 : acceptor.getCommitted();
+    }
+
+    /**
+     * @param size the encoded size of the request, or 0 if not known
+     */
+    private void onBroadcastRequest(BroadcastRequest req, int size) {
         if (iAmElected) {
             if (messagesCirculating.contains(req.msgId)) return;
+            if (pendingRequests.size() >= MAX_QUEUED_REQUESTS) {
+                sendBusy(req.msgId);
+                return;
+            }
             messagesCirculating.add(req.msgId);
-            createProposal(++seqNo, req.message, req.msgId);
-            assistants.add(new MultiAccept(membership, messenger, seqNo, req.message, req.msgId));
+            if (pendingRequests.isEmpty()) pendingSince = time;
+            pendingRequests.add(new PendingRequest(req, size));
+            pendingBytes += size;
+            proposePendingRequests(false);
         } else {
             System.out.println("I am not the leader");
         }
     }
 
+    /**
+     * Proposes the pending requests in as many slots as the window allows. Unless forced, they are held back while
+     * an accept is in flight, until a batch is full.
+     */
+    private void proposePendingRequests(boolean force) {
+        List<Slot> proposed = new ArrayList<Slot>();
+        while (!pendingRequests.isEmpty() && slotsInFlight.size() < window) {
+            boolean batchFull = pendingRequests.size() >= MAX_BATCH_MESSAGES || pendingBytes > MAX_BATCH_BYTES;
+            if (!force && !batchFull && slotsInFlight.size() >= MAX_ACCEPTS_IN_FLIGHT) break;
+            proposed.add(proposeBatch());
+        }
+        sendAccepts(proposed);
+    }
+
+    /**
+     * Proposes the first pending requests that fit in a batch in the next slot, on their own if there is only one.
+     *
+     * @return the slot, whose accept is still to be sent
+     */
+    private Slot proposeBatch() {
+        List<BroadcastRequest> batch = new ArrayList<BroadcastRequest>();
+        int bytes = 0;
+        while (!pendingRequests.isEmpty() && batch.size() < MAX_BATCH_MESSAGES) {
+            PendingRequest next = pendingRequests.getFirst();
+            if (!batch.isEmpty() && bytes + next.size > MAX_BATCH_BYTES) break;
+            pendingRequests.removeFirst();
+            batch.add(next.request);
+            bytes += next.size;
+        }
+        pendingBytes -= bytes;
+        pendingSince = time;
+        BroadcastRequest first = batch.get(0);
+        Serializable message = (batch.size() == 1) ? first.message : new Batch(batch);
+        createProposal(++seqNo, message, first.msgId);
+        return new Slot(seqNo, message, first.msgId);
+    }
+
+    /**
+     * Sends the accepts of the slots to all members.
+     */
+    private void sendAccepts(List<Slot> slots) {
+        if (slots.isEmpty()) return;
+        sendAccepts(slots, null);
+        for (Member member : membership.getMembers()) {
+            Follower follower = follower(member);
+            follower.nextIndex = Math.max(follower.nextIndex, slots.get(slots.size() - 1).seqNo + 1);
+            follower.lastSent = time;
+        }
+        announcedUpTo = decidedUpTo; // the accepts were created with it
+    }
+
+    /**
+     * Sends again to the member the slots in flight it has not acknowledged.
+     */
+    private void resendAccepts(Follower follower) {
+        List<Slot> unacknowledged = new ArrayList<Slot>();
+        if (follower.matchIndex + 1 < follower.nextIndex) {
+            for (Slot slot : slotsInFlight.subMap(follower.matchIndex + 1, follower.nextIndex).values()) {
+                if (!slot.acceptors.contains(follower.member)) unacknowledged.add(slot);
+            }
+        }
+        sendAccepts(unacknowledged, follower.member);
+        follower.lastSent = time;
+    }
+
+    /**
+     * Sends the accepts, ordered by seqNo, grouping the consecutive ones into ranges.
+     *
+     * @param to the member to send them to, or <code>null</code> for all members
+     */
+    private void sendAccepts(List<Slot> slots, Member to) {
+        int start = 0, bytes = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (i > start && (slot.seqNo != slots.get(i - 1).seqNo + 1 || bytes + slot.accept.length > MAX_RANGE_BYTES)) {
+                sendRange(slots.subList(start, i), to);
+                start = i;
+                bytes = 0;
+            }
+            bytes += slot.accept.length;
+        }
+        if (start < slots.size()) sendRange(slots.subList(start, slots.size()), to);
+    }
+
+    private void sendRange(List<Slot> range, Member to) {
+        if (range.size() == 1) {
+            send(range.get(0).accept, to);
+            return;
+        }
+        List<Serializable> messages = new ArrayList<Serializable>(range.size());
+        long[] msgIds = new long[range.size()];
+        for (int i = 0; i < range.size(); i++) {
+            messages.add(range.get(i).message);
+            msgIds[i] = range.get(i).msgId;
+        }
+        AcceptRange accept = new AcceptRange(viewNumber, range.get(0).seqNo, messages, msgIds, me, decidedUpTo);
+        send(MessageCodec.encode(accept, membership), to);
+    }
+
+    private void send(byte[] message, Member to) {
+        if (to == null) {
+            messenger.sendTo(membership.getMembers(), message);
+        } else {
+            messenger.sendTo(to, message);
+        }
+    }
+
+    private void dropPendingRequests() {
+        for (PendingRequest pending : pendingRequests) messagesCirculating.remove(pending.request.msgId);
+        pendingRequests.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * Tells the member that sent the request, found from the position in the msgId, to ask again later.
+     */
+    private void sendBusy(long msgId) {
+        int position = (int) (msgId / AcceptorLogic.MAX_CIRCULATING_MESSAGES);
+        List<Member> members = membership.getMembers();
+        if (position < members.size()) messenger.sendTo(members.get(position), MessageCodec.encode(new Busy(msgId), membership));
+    }
+
+    /**
+     * @return the msgIds of the messages decided in a slot, which are several for a batch
+     */
+    private static List<Long> msgIdsOf(Serializable message, long msgId) {
+        if (!(message instanceof Batch)) return Collections.singletonList(msgId);
+        Batch batch = (Batch) message;
+        List<Long> msgIds = new ArrayList<Long>(batch.size());
+        for (int i = 0; i < batch.size(); i++) msgIds.add(batch.getMsgId(i));
+        return msgIds;
+    }
+
     private long newViewNumber() {
         int groupSize = membership.groupSize();
         long previousBallot = viewNumber/groupSize;
@@ -116,7 +439,7 @@ public class LeaderLogic implements FailureListener {
     public void memberFailed(Member failedMember, Set<Member> aliveMembers) {
         if (me.equals(PaxosUtils.selectLeader(aliveMembers))) {
             System.out.println(me + ": taking leadership");
-            assistants.add(new Election(membership, messenger, time, newViewNumber()));
+            elections.add(new Election(membership, messenger, time, newViewNumber(), committed()));
         }
     }
 
@@ -138,19 +461,33 @@ public class LeaderLogic implements FailureListener {
     }
 
     private void registerAcceptance(long viewNo, long seqNo, long msgId) {
-        proposals.get(seqNo).acceptDefault(viewNo, msgId);
+        Proposal proposal = proposals.get(seqNo);
+        if (proposal != null) proposal.acceptDefault(viewNo, msgId); // unless aborted
     }
 
     private void abortBallot(long seqNo) {
         proposals.remove(seqNo);
     }
 
+    private static class PendingRequest {
+        final BroadcastRequest request;
+        final int size;
+
+        PendingRequest(BroadcastRequest request, int size) {
+            this.request = request;
+            this.size = size;
+        }
+    }
+
     private class Election extends MultiRequest<NewView, ViewAccepted> {
         private final long viewNumber;
+        private final long committed;
+        private final Map<Member, Set<Integer>> chunksReceived = new HashMap<Member, Set<Integer>>();
 
-        public Election(GroupMembership membership, CommLayer messenger, long time, long viewNumber) {
-            super(membership, messenger, new NewView(me, viewNumber), time);
+        public Election(GroupMembership membership, CommLayer messenger, long time, long viewNumber, long committed) {
+            super(membership, messenger, new NewView(me, viewNumber, committed), time);
             this.viewNumber = viewNumber;
+            this.committed = committed;
         }
 
         @Override
@@ -159,95 +496,100 @@ public class LeaderLogic implements FailureListener {
                 ViewAccepted viewAccepted = (ViewAccepted) message;
                 if (viewAccepted.viewNumber != viewNumber) return null;
                 registerViewAcceptance(viewAccepted);
-                return viewAccepted;
+                return allChunksReceived(viewAccepted) ? viewAccepted : null;
             } else {
                 return null;
             }
         }
 
+        private boolean allChunksReceived(ViewAccepted viewAccepted) {
+            if (viewAccepted.chunks == 1) return true;
+            Set<Integer> chunks = chunksReceived.get(viewAccepted.sender);
+            if (chunks == null) chunksReceived.put(viewAccepted.sender, chunks = new HashSet<Integer>());
+            chunks.add(viewAccepted.chunk);
+            return chunks.size() == viewAccepted.chunks;
+        }
+
         @Override
         protected void onQuorumReached() {
             System.out.println(me + ": I am the leader");
             iAmElected = true;
+            slotsInFlight.clear(); // the proposals of an older view will not get a majority
+            for (Follower follower : followers.values()) follower.startView();
+            decidedAhead.clear();
+            decidedUpTo = committed;
 
-            // send accept for all seqNo where we have a proposal
+            // send accept for all seqNo after the committed one where we have a proposal
+            SortedMap<Long, Slot> accepts = new TreeMap<Long, Slot>();
             for (Long seqNo : proposals.keySet()) {
                 Proposal proposal = proposals.get(seqNo);
-                if (proposal != null) {
+                if (proposal != null && seqNo > committed) {
                     Serializable choice = proposal.newestOutcome;
                     long msgId = proposal.getMsgId();
-                    messagesCirculating.add(msgId);
-                    assistants.add(new MultiAccept(membership, messenger, seqNo, choice, msgId));
+                    messagesCirculating.addAll(msgIdsOf(choice, msgId));
+                    accepts.put(seqNo, new Slot(seqNo, choice, msgId));
                 }
             }
 
             // send NoOp for all the gaps
-            LeaderLogic.this.seqNo = PaxosUtils.findMax(proposals.keySet());
-            for (long seqNo = 1; seqNo < LeaderLogic.this.seqNo; seqNo++) {
+            LeaderLogic.this.seqNo = Math.max(PaxosUtils.findMax(proposals.keySet()), committed);
+            for (long seqNo = committed + 1; seqNo < LeaderLogic.this.seqNo; seqNo++) {
                 if (!proposals.containsKey(seqNo)) {
                     createProposal(seqNo, NO_OP, 0l);
-                    assistants.add(new MultiAccept(membership, messenger, seqNo, NO_OP, 0l));
+                    accepts.put(seqNo, new Slot(seqNo, NO_OP, 0l));
                 }
             }
+            sendAccepts(new ArrayList<Slot>(accepts.values()));
         }
     }
 
-    private class MultiAccept extends MultiRequest<Accept, Accepted> {
-        private final long seqNo;
-        private final Serializable message;
-        private final long msgId;
+    /**
+     * A slot proposed in this view that has not been decided yet.
+     */
+    private class Slot {
+        final long seqNo;
+        final Serializable message;
+        final long msgId;
+        final byte[] accept;
+        final Set<Member> acceptors = new HashSet<Member>();
 
-        public MultiAccept(GroupMembership membership, CommLayer messenger, long seqNo, Serializable message, long msgId) {
-            super(membership, messenger, new Accept(viewNumber, seqNo, message, msgId, me), time);
+        Slot(long seqNo, Serializable message, long msgId) {
             this.seqNo = seqNo;
             this.message = message;
             this.msgId = msgId;
+            this.accept = MessageCodec.encode(new Accept(viewNumber, seqNo, message, msgId, me, decidedUpTo), membership);
+            slotsInFlight.put(seqNo, this);
         }
 
-        @Override
-        protected Accepted filterResponse(Serializable message) {
-            if (message instanceof Accepted) {
-                Accepted accepted = (Accepted) message;
-                if (accepted.viewNo != viewNumber || accepted.seqNo != seqNo) return null;
-                registerAcceptance(accepted.viewNo, accepted.seqNo, accepted.msgId);
-                sendMissingSuccessMessages(accepted.missingSuccess, accepted.sender);
-                return accepted;
-            } else return null;
-        }
-
-        @Override
-        protected void onQuorumReached() {
-            successfulMessages.put(seqNo, message);
-            successfulMsgIds.put(seqNo, msgId);
-            assistants.add(new MultiSuccess(membership, messenger, seqNo, message, msgId));
+        /**
+         * Counts the acceptance of the member, once.
+         *
+         * @param decided where to add the slot if this acceptance brings it to a majority
+         */
+        void acceptedBy(Member member, List<Slot> decided) {
+            if (!acceptors.add(member)) return;
+            registerAcceptance(viewNumber, seqNo, msgId);
+            if (acceptors.size() == membership.groupSize() / 2 + 1) decided.add(this);
         }
     }
 
-    private class MultiSuccess extends MultiRequest<Success, SuccessAck> {
-        private final long seqNo;
-        private final long msgId;
-
-        public MultiSuccess(GroupMembership membership, CommLayer messenger, long seqNo, Serializable msg, long msgId) {
-            super(membership, messenger, new Success(seqNo, msg, msgId), time);
-            this.seqNo = seqNo;
-            this.msgId = msgId;
-        }
+    /**
+     * What the leader knows of the replication to one member.
+     */
+    private static class Follower {
+        final Member member;
+        long nextIndex = 0; // the seqNo after the last accept sent to it
+        long matchIndex = -1; // it accepted everything up to it in this view
+        long delivered = -1; // it delivered everything up to it
+        long lastSent;
 
-        @Override
-        protected SuccessAck filterResponse(Serializable message) {
-            if (message instanceof SuccessAck) {
-                SuccessAck successAck = (SuccessAck) message;
-                return (msgId != successAck.getMsgId()) ? null : successAck;
-            } else return null;
+        Follower(Member member) {
+            this.member = member;
         }
 
-        @Override
-        protected void onCompleted() {
-            // we can forget about the message now
-            successfulMessages.remove(seqNo);
-            successfulMsgIds.remove(msgId);
-            messagesCirculating.remove(msgId);
-            finish();
+        void startView() {
+            nextIndex = 0;
+            matchIndex = -1;
         }
     }
 }
@@ -1,14 +1,20 @@
 package paxos;
 
-import java.util.HashSet;
+import paxos.messages.SeqNoRanges;
+
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
- * Keeps track of messages that have been received.
+ * Keeps track of messages that have been received. Those received after the first missing one are kept as ranges, so
+ * that finding what is missing takes as many steps as there are gaps, not as many as there are messages.
  */
 public class MissingMessagesTracker {
+    public static final int MAX_REPORTED_MISSING = 256;
     private long tail = 0; // all messages before the tail have been received
-    private Set<Long> received = new HashSet<Long>(); // received messages after the tail
+    private TreeMap<Long, Long> received = new TreeMap<Long, Long>(); // ranges received after the tail, start to end (exclusive)
 
     /**
      * Mark the specified message as received.
@@ -16,36 +22,74 @@ public class MissingMessagesTracker {
      * @param seqNo
      */
     public void received(long seqNo) {
+        if (isReceived(seqNo)) return;
         if (tail == seqNo) {
             tail++;
             advanceTail();
-        } else {
-            received.add(seqNo);
+            return;
         }
+        long start = seqNo, end = seqNo + 1;
+        Map.Entry<Long, Long> before = received.lowerEntry(seqNo);
+        if (before != null && before.getValue() == seqNo) start = before.getKey();
+        Long after = received.remove(end);
+        if (after != null) end = after;
+        received.put(start, end);
     }
 
     /**
      * advance the tail to the next missing message
      */
     private void advanceTail() {
-        while (!received.isEmpty()) {
-            if (!received.contains(tail)) return;
-            received.remove(tail);
-            tail++;
-        }
+        Long end = received.remove(tail);
+        if (end != null) tail = end;
     }
 
     /**
-     * Returns the messages that are missing up to the specified one.
+     * @return whether the message has been marked as received
+     */
+    public boolean isReceived(long seqNo) {
+        if (seqNo < tail) return true;
+        Map.Entry<Long, Long> range = received.floorEntry(seqNo);
+        return range != null && seqNo < range.getValue();
+    }
+
+    /**
+     * @return the first sequence number that has not been received, all those before it have
+     */
+    public long getTail() {
+        return tail;
+    }
+
+    /**
+     * @return the first sequence number from the specified one on that has not been received
+     */
+    public long getNextMissing(long seqNo) {
+        if (seqNo < tail) return tail;
+        Map.Entry<Long, Long> range = received.floorEntry(seqNo);
+        return (range != null && seqNo < range.getValue()) ? range.getValue() : seqNo;
+    }
+
+    /**
+     * Returns the messages that are missing up to the specified one, as ranges. Only the first
+     * {@link #MAX_REPORTED_MISSING} are returned, so that a member far behind asks for the rest a bit at a time.
      *
      * @param seqNo
      * @return
      */
     public Set<Long> getMissing(long seqNo) {
-        Set<Long> missingSuccess = new HashSet<Long>();
-        for (long i = tail; i < seqNo; i++) {
-            if (!received.contains(i)) missingSuccess.add(i);
+        if (tail >= seqNo) return Collections.emptySet();
+        SeqNoRanges missingSuccess = new SeqNoRanges();
+        long start = tail;
+        for (Map.Entry<Long, Long> range : received.headMap(seqNo).entrySet()) {
+            if (missingSuccess.size() == MAX_REPORTED_MISSING) break;
+            addCapped(missingSuccess, start, range.getKey());
+            start = range.getValue();
         }
+        if (start < seqNo) addCapped(missingSuccess, start, seqNo);
         return missingSuccess;
     }
+
+    private void addCapped(SeqNoRanges ranges, long start, long end) {
+        ranges.addRange(start, Math.min(end, start + MAX_REPORTED_MISSING - ranges.size()));
+    }
 }
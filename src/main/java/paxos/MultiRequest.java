@@ -2,7 +2,7 @@ package paxos;
 
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
+import paxos.messages.MessageCodec;
 import paxos.messages.MessageWithSender;
 
 import java.io.Serializable;
@@ -34,7 +34,7 @@ public abstract class MultiRequest<T extends Serializable, R extends MessageWith
     public MultiRequest(GroupMembership membership, CommLayer messenger, T req, long time) {
         this.membership = membership;
         this.messenger = messenger;
-        this.req = PaxosUtils.serialize(req);
+        this.req = MessageCodec.encode(req, membership);
         messenger.sendTo(membership.getMembers(), this.req);
         this.lastResend = time;
     }
@@ -101,8 +101,6 @@ public abstract class MultiRequest<T extends Serializable, R extends MessageWith
      * @param message
      */
     final public void receive(Serializable message) {
-        if (message instanceof Tick) tick(((Tick) message).time);
-
         R resp = filterResponse(message);
         if (resp != null) {
             responses.put(resp.getSender(), resp);
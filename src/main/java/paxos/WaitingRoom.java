@@ -1,18 +1,27 @@
 package paxos;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 public class WaitingRoom {
     private final HashMap<Long, Semaphore> waitingForResponse = new HashMap<Long, Semaphore>();
+    private final HashSet<Long> turnedAway = new HashSet<Long>();
 
+    /**
+     * @return <code>true</code> if the message was unblocked, <code>false</code> if the wait timed out or the leader
+     * turned the message away
+     */
     public boolean waitALittle(long msgId) throws InterruptedException {
         Semaphore semaphore;
         synchronized (waitingForResponse) {
             semaphore = getOrCreateSemaphore(msgId);
         }
-        return semaphore.tryAcquire(1000, TimeUnit.MILLISECONDS);
+        boolean released = semaphore.tryAcquire(1000, TimeUnit.MILLISECONDS);
+        synchronized (waitingForResponse) {
+            return released && !turnedAway.contains(msgId);
+        }
     }
 
     public void unblock(long msgId) {
@@ -22,6 +31,25 @@ public class WaitingRoom {
         }
     }
 
+    /**
+     * Wakes up the thread waiting for the message without unblocking it, so that it can try again later.
+     */
+    public void turnAway(long msgId) {
+        synchronized (waitingForResponse) {
+            turnedAway.add(msgId);
+            getOrCreateSemaphore(msgId).release();
+        }
+    }
+
+    /**
+     * @return whether the message was turned away since the last call, which is then forgotten
+     */
+    public boolean wasTurnedAway(long msgId) {
+        synchronized (waitingForResponse) {
+            return turnedAway.remove(msgId);
+        }
+    }
+
     private Semaphore getOrCreateSemaphore(long msgId) {
         if (!waitingForResponse.containsKey(msgId)) {
             waitingForResponse.put(msgId, new Semaphore(0));
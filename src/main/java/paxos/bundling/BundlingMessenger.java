@@ -0,0 +1,230 @@
+package paxos.bundling;
+
+import paxos.communication.BufferPool;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This communication layer packs small messages for the same member into one datagram, so that a burst of protocol
+ * messages costs a single packet. A bundle is sent when the next message would not fit in it any more, or at the
+ * latest a short delay after its first message was added. A bundle starts with a marker byte followed by the
+ * messages, each preceded by its length on two bytes. A bundle holding a single message is sent as the message alone.
+ *
+ * Messages larger than the bundle size are sent as they are, after the pending bundle for the member, unless they
+ * start with the marker byte. Put this layer
+ * directly above the messenger, below the {@link paxos.fragmentation.FragmentingMessenger} and the
+ * {@link paxos.compression.CompressingMessenger}.
+ */
+public class BundlingMessenger implements CommLayer, CommLayer.MessageListener {
+    public static final int DEFAULT_BUNDLE_SIZE = 1472; // largest UDP payload fitting an ethernet frame
+    public static final long DEFAULT_DELAY_NANOS = 200 * 1000;
+    private static final byte MARKER = 'B';
+    private static final int LENGTH_SIZE = 2;
+    private static final int REST_OF_DATAGRAM = 0xFFFF;
+
+    private final CommLayer messenger;
+    private final int bundleSize;
+    private final long delay;
+    private final Map<Member, Bundle> bundles = new HashMap<Member, Bundle>();
+    private final FlushingThread flushingThread = new FlushingThread();
+    private MessageListener upstreamListener;
+    private int pendingBundles = 0;
+    private boolean running = true;
+
+    public BundlingMessenger(CommLayer messenger) {
+        this(messenger, DEFAULT_BUNDLE_SIZE, DEFAULT_DELAY_NANOS);
+    }
+
+    /**
+     * @param bundleSize the maximum size of a bundle in bytes, at most {@link BufferPool#BUFFER_SIZE}
+     * @param delay the longest time a message waits in a bundle, in nanoseconds
+     */
+    public BundlingMessenger(CommLayer messenger, int bundleSize, long delay) {
+        if (bundleSize > BufferPool.BUFFER_SIZE) throw new IllegalArgumentException("Bundle size " + bundleSize + " too large");
+        this.messenger = messenger;
+        this.bundleSize = bundleSize;
+        this.delay = delay;
+        this.messenger.setListener(this);
+        this.flushingThread.start();
+    }
+
+    public void setListener(MessageListener listener) {
+        this.upstreamListener = listener;
+    }
+
+    public void sendTo(List<Member> members, byte[] message) {
+        for (Member member : members) {
+            sendTo(member, message);
+        }
+    }
+
+    public synchronized void sendTo(Member member, byte[] message) {
+        if (!fits(message.length)) {
+            flush(member);
+            messenger.sendTo(member, startsWithMarker(message) ? escape(message) : message);
+        } else {
+            bundleFor(member, message.length).buffer.putShort((short) message.length).put(message);
+        }
+    }
+
+    public synchronized void sendTo(Member member, ByteBuffer message) {
+        if (!fits(message.remaining()) && startsWithMarker(message)) {
+            sendTo(member, BufferPool.toByteArray(message));
+        } else if (!fits(message.remaining())) {
+            flush(member);
+            messenger.sendTo(member, message);
+        } else {
+            bundleFor(member, message.remaining()).buffer.putShort((short) message.remaining()).put(message);
+            BufferPool.release(message);
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            running = false;
+            for (Member member : bundles.keySet()) {
+                flush(member);
+            }
+            notify();
+        }
+        messenger.close();
+    }
+
+    public void receive(byte[] message) {
+        if (upstreamListener == null) return;
+        if (message.length == 0 || message[0] != MARKER) {
+            upstreamListener.receive(message);
+            return;
+        }
+        ByteBuffer bundle = ByteBuffer.wrap(message, 1, message.length - 1);
+        while (bundle.hasRemaining()) {
+            int length = bundle.getShort() & 0xFFFF;
+            if (length == REST_OF_DATAGRAM) length = bundle.remaining();
+            int start = bundle.position();
+            bundle.position(start + length);
+            upstreamListener.receive(Arrays.copyOfRange(message, start, start + length));
+        }
+    }
+
+    public void tick(long time) {
+        if (upstreamListener != null) upstreamListener.tick(time);
+    }
+
+    private static boolean startsWithMarker(byte[] message) {
+        return message.length > 0 && message[0] == MARKER;
+    }
+
+    private static boolean startsWithMarker(ByteBuffer message) {
+        return message.hasRemaining() && message.get(message.position()) == MARKER;
+    }
+
+    /**
+     * Wraps a large message that would be mistaken for a bundle into a bundle of its own.
+     */
+    private static byte[] escape(byte[] message) {
+        ByteBuffer escaped = ByteBuffer.allocate(1 + LENGTH_SIZE + message.length);
+        escaped.put(MARKER).putShort((short) REST_OF_DATAGRAM).put(message);
+        return escaped.array();
+    }
+
+    private boolean fits(int length) {
+        return 1 + LENGTH_SIZE + length <= bundleSize;
+    }
+
+    /**
+     * @return the bundle of the member with room for a message of the given length, sending the current bundle first
+     * if it is too full
+     */
+    private Bundle bundleFor(Member member, int length) {
+        Bundle bundle = bundles.get(member);
+        if (bundle == null) {
+            bundle = new Bundle();
+            bundles.put(member, bundle);
+        }
+        if (bundle.buffer != null && bundle.buffer.position() + LENGTH_SIZE + length > bundleSize) flush(member);
+        if (bundle.buffer == null) {
+            bundle.buffer = BufferPool.acquire();
+            bundle.buffer.put(MARKER);
+            bundle.deadline = System.nanoTime() + delay;
+            if (pendingBundles++ == 0) notify();
+        }
+        bundle.messages++;
+        return bundle;
+    }
+
+    private void flush(Member member) {
+        Bundle bundle = bundles.get(member);
+        if (bundle == null || bundle.buffer == null) return;
+        ByteBuffer buffer = bundle.buffer;
+        buffer.flip();
+        // a single message goes out on its own, unless it could be mistaken for a bundle
+        if (bundle.messages == 1 && (buffer.limit() == 1 + LENGTH_SIZE || buffer.get(1 + LENGTH_SIZE) != MARKER)) {
+            buffer.position(1 + LENGTH_SIZE);
+        }
+        bundle.buffer = null;
+        bundle.messages = 0;
+        pendingBundles--;
+        messenger.sendTo(member, buffer);
+    }
+
+    /**
+     * Sends the bundles whose delay is over.
+     *
+     * @return the time until the next bundle is due, in nanoseconds
+     */
+    private long flushExpired(long now) {
+        long next = delay;
+        for (Map.Entry<Member, Bundle> entry : bundles.entrySet()) {
+            Bundle bundle = entry.getValue();
+            if (bundle.buffer == null) continue;
+            if (bundle.deadline - now <= 0) {
+                flush(entry.getKey());
+            } else {
+                next = Math.min(next, bundle.deadline - now);
+            }
+        }
+        return next;
+    }
+
+    private static class Bundle {
+        private ByteBuffer buffer;
+        private int messages;
+        private long deadline;
+    }
+
+    private class FlushingThread extends Thread {
+        private FlushingThread() {
+            super("BundlingMessenger-flusher");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long wait;
+                    synchronized (BundlingMessenger.this) {
+                        while (running && pendingBundles == 0) BundlingMessenger.this.wait();
+                        if (!running) return;
+                        try {
+                            wait = flushExpired(System.nanoTime());
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                            wait = delay;
+                        }
+                    }
+                    LockSupport.parkNanos(wait);
+                }
+            } catch (InterruptedException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+}
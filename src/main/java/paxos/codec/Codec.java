@@ -0,0 +1,16 @@
+package paxos.codec;
+
+import java.io.Serializable;
+
+/**
+ * Turns the messages broadcast by the application into the bytes carried by the group and back. A group configured
+ * with a codec relays the encoded bytes as they are, so only the broadcasting member encodes a message and only the
+ * receiving members decode it.
+ *
+ * @see JavaSerializationCodec
+ * @see RawBytesCodec
+ */
+public interface Codec {
+    byte[] encode(Serializable message);
+    Serializable decode(byte[] bytes);
+}
@@ -0,0 +1,26 @@
+package paxos.codec;
+
+import paxos.Receiver;
+
+import java.io.Serializable;
+
+/**
+ * Decodes the messages delivered by a group before passing them on to the application.
+ */
+public class DecodingReceiver implements Receiver {
+    private final Codec codec;
+    private final Receiver receiver;
+
+    public DecodingReceiver(Codec codec, Receiver receiver) {
+        this.codec = codec;
+        this.receiver = receiver;
+    }
+
+    public void receive(Serializable message) {
+        if (message instanceof byte[]) {
+            receiver.receive(codec.decode((byte[]) message));
+        } else {
+            System.out.println("don't know about " + message);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package paxos.codec;
+
+import paxos.PaxosUtils;
+
+import java.io.Serializable;
+
+/**
+ * Encodes messages with Java serialization. Works for any message, but it is slow and verbose.
+ */
+public class JavaSerializationCodec implements Codec {
+    public byte[] encode(Serializable message) {
+        return PaxosUtils.serialize(message);
+    }
+
+    public Serializable decode(byte[] bytes) {
+        return (Serializable) PaxosUtils.deserialize(bytes);
+    }
+}
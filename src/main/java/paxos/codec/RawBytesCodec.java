@@ -0,0 +1,17 @@
+package paxos.codec;
+
+import java.io.Serializable;
+
+/**
+ * For applications that encode their messages themselves and broadcast byte arrays.
+ */
+public class RawBytesCodec implements Codec {
+    public byte[] encode(Serializable message) {
+        if (!(message instanceof byte[])) throw new IllegalArgumentException("Expected a byte[] but got " + message.getClass());
+        return (byte[]) message;
+    }
+
+    public Serializable decode(byte[] bytes) {
+        return bytes;
+    }
+}
@@ -0,0 +1,50 @@
+package paxos.communication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of fixed size heap buffers for encoding outgoing messages without allocating. A buffer passed to
+ * {@link CommLayer#sendTo(Member, ByteBuffer)} belongs to the communication layer from then on, and the layer
+ * releases it back here once the message has been sent. A buffer must never be released twice.
+ */
+public class BufferPool {
+    public static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final ByteBuffer[] pooled = new ByteBuffer[MAX_POOLED_BUFFERS];
+    private static int available = 0;
+
+    /**
+     * @return an empty buffer of {@link #BUFFER_SIZE} bytes, taken from the pool if possible
+     */
+    public static ByteBuffer acquire() {
+        synchronized (pooled) {
+            if (available > 0) {
+                ByteBuffer buffer = pooled[--available];
+                pooled[available] = null;
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the buffer to the pool. Buffers that were not created by the pool are simply dropped.
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() != BUFFER_SIZE) return;
+        buffer.clear();
+        synchronized (pooled) {
+            if (available < MAX_POOLED_BUFFERS) pooled[available++] = buffer;
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of the buffer and releases it. Used by layers that can only send byte arrays.
+     */
+    public static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        release(buffer);
+        return bytes;
+    }
+}
@@ -1,14 +1,27 @@
 package paxos.communication;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public interface CommLayer {
     void sendTo(List<Member> members, byte[] message);
     void sendTo(Member member, byte[] message);
+
+    /**
+     * Sends the remaining bytes of the buffer. The buffer is handed over to the communication layer, which
+     * returns it to the {@link BufferPool} when it no longer needs it.
+     */
+    void sendTo(Member member, ByteBuffer message);
     void setListener(MessageListener listener);
     void close();
 
     interface MessageListener {
         void receive(byte[] message);
+
+        /**
+         * Invoked periodically by the communication layer, separately from the messages received, with the current
+         * time in milliseconds.
+         */
+        void tick(long time);
     }
 }
@@ -0,0 +1,37 @@
+package paxos.communication;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tells whether a member is this very process, so that the communication layers can deliver the messages a member
+ * sends to itself (the leader is one of its own acceptors) without going through the network stack.
+ */
+public class LocalAddresses {
+    private static final ConcurrentMap<InetAddress, Boolean> local = new ConcurrentHashMap<InetAddress, Boolean>();
+
+    /**
+     * @param port the port the communication layer is bound to
+     * @return true if the member is on this host and on that port
+     */
+    public static boolean isLocal(Member member, int port) {
+        return member.getPort() == port && isLocal(member.getAddress());
+    }
+
+    public static boolean isLocal(InetAddress address) {
+        Boolean isLocal = local.get(address);
+        if (isLocal == null) {
+            try {
+                isLocal = address.isLoopbackAddress() || address.isAnyLocalAddress()
+                        || NetworkInterface.getByInetAddress(address) != null;
+            } catch (SocketException e) {
+                isLocal = false;
+            }
+            local.put(address, isLocal);
+        }
+        return isLocal;
+    }
+}
@@ -3,6 +3,7 @@ package paxos.communication;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import javax.validation.constraints.NotNull;
 
 public class Member implements Comparable<Member>, Serializable {
@@ -34,6 +35,14 @@ public class Member implements Comparable<Member>, Serializable {
         return port;
     }
 
+    /**
+     * Writes the length of the raw IP address followed by the address itself, without copying it first.
+     */
+    public void putAddress(ByteBuffer buffer) {
+        buffer.put((byte) addressBytes.length);
+        buffer.put(addressBytes);
+    }
+
     public int compareTo(@NotNull Member other) {
         // not using a loop for performance reasons
         if (this.addressBytes[0] < other.addressBytes[0]) return -1;
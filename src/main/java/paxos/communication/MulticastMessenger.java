@@ -0,0 +1,189 @@
+package paxos.communication;
+
+import paxos.GroupMembership;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This communication layer sends the messages addressed to the whole group as a single IP multicast datagram, so that
+ * the leader sends one packet per ACCEPT, SUCCESS and heartbeat whatever the size of the group. Every other message,
+ * such as the replies and the retransmissions to single members, goes through the underlying unicast layer.
+ *
+ * All the members of the group must use the same multicast address and port, by default an address in the
+ * organization-local scope 239.255.0.0/16 derived from the members and the epoch of the group. The port must not be
+ * one of the unicast ports of the members. Multicast datagrams are looped back, so the sender receives its own
+ * messages as the other members do.
+ *
+ * The receiving socket is bound to the multicast address, so it does not receive the datagrams of other multicast
+ * addresses sharing the port. A socket bound to a multicast address cannot send, so the datagrams are sent from a
+ * second socket on an ephemeral port. As that scope leaves only 16 bits to tell groups apart, every datagram also starts with a marker
+ * byte and the 8 byte id of the group, and the datagrams of other groups are dropped before deserializing anything.
+ */
+public class MulticastMessenger implements CommLayer, CommLayer.MessageListener {
+    public static final int DEFAULT_PORT = 2439;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte MARKER = 'M';
+    private static final int HEADER_SIZE = 9;
+
+    private final CommLayer unicast;
+    private final GroupMembership membership;
+    private final InetAddress group;
+    private final int port;
+    private final long groupId;
+    private final MulticastSocket socket;
+    private final MulticastSocket sendingSocket;
+    private final DatagramPacket sendPacket = new DatagramPacket(new byte[0], 0);
+    private final ReceivingThread receivingThread;
+    private MessageListener upstreamListener;
+    private volatile boolean running = true;
+
+    public MulticastMessenger(CommLayer unicast, GroupMembership membership) throws IOException {
+        this(unicast, membership, groupAddressFor(membership), DEFAULT_PORT, null);
+    }
+
+    /**
+     * @param networkInterface the interface to send and receive the multicast datagrams on, or null for the default one
+     */
+    public MulticastMessenger(CommLayer unicast, GroupMembership membership, InetAddress group, int port,
+                              NetworkInterface networkInterface) throws IOException {
+        if (!group.isMulticastAddress()) throw new IllegalArgumentException(group + " is not a multicast address");
+        this.unicast = unicast;
+        this.membership = membership;
+        this.group = group;
+        this.port = port;
+        this.groupId = groupIdFor(membership);
+        this.socket = new MulticastSocket(null);
+        this.sendingSocket = new MulticastSocket();
+        try {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(group, port));
+            if (networkInterface != null) {
+                socket.setNetworkInterface(networkInterface);
+                sendingSocket.setNetworkInterface(networkInterface);
+            }
+            socket.joinGroup(group);
+        } catch (IOException e) {
+            socket.close();
+            sendingSocket.close();
+            throw e;
+        }
+        this.unicast.setListener(this);
+        this.receivingThread = new ReceivingThread();
+        this.receivingThread.start();
+    }
+
+    /**
+     * @return an address in 239.255.0.0/16 which is the same for all the members of the group
+     */
+    public static InetAddress groupAddressFor(GroupMembership membership) {
+        long id = groupIdFor(membership);
+        int hash = (int) (id ^ (id >>> 32));
+        hash ^= hash >>> 16;
+        try {
+            return InetAddress.getByAddress(new byte[] {(byte) 239, (byte) 255, (byte) (hash >> 8), (byte) hash});
+        } catch (UnknownHostException e) {
+            throw new RuntimeException(e); // cannot happen with four bytes
+        }
+    }
+
+    /**
+     * @return the id the datagrams of the group are tagged with, the same for all its members
+     */
+    public static long groupIdFor(GroupMembership membership) {
+        long id = membership.getEpoch();
+        for (Member member : membership.getMembers()) {
+            id = 31 * id + member.hashCode();
+        }
+        return id;
+    }
+
+    public void setListener(MessageListener listener) {
+        this.upstreamListener = listener;
+    }
+
+    public void sendTo(List<Member> members, byte[] message) {
+        if (!isWholeGroup(members)) {
+            unicast.sendTo(members, message);
+            return;
+        }
+        byte[] datagram = ByteBuffer.allocate(HEADER_SIZE + message.length)
+                .put(MARKER).putLong(groupId).put(message).array();
+        try {
+            synchronized (sendPacket) {
+                sendPacket.setData(datagram);
+                sendPacket.setAddress(group);
+                sendPacket.setPort(port);
+                sendingSocket.send(sendPacket);
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    public void sendTo(Member member, byte[] message) {
+        unicast.sendTo(member, message);
+    }
+
+    public void sendTo(Member member, ByteBuffer message) {
+        unicast.sendTo(member, message);
+    }
+
+    public void close() {
+        running = false;
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException e) {
+            // closing anyway
+        }
+        socket.close();
+        sendingSocket.close();
+        unicast.close();
+    }
+
+    // the messages received by multicast and by unicast come from different threads, the listener sees one at a time
+
+    public synchronized void receive(byte[] message) {
+        if (upstreamListener != null) upstreamListener.receive(message);
+    }
+
+    public synchronized void tick(long time) {
+        if (upstreamListener != null) upstreamListener.tick(time);
+    }
+
+    private boolean isWholeGroup(List<Member> members) {
+        return members == membership.getMembers() || members.equals(membership.getMembers());
+    }
+
+    private boolean isOfThisGroup(DatagramPacket packet) {
+        if (packet.getLength() < HEADER_SIZE || packet.getData()[packet.getOffset()] != MARKER) return false;
+        return ByteBuffer.wrap(packet.getData()).getLong(packet.getOffset() + 1) == groupId;
+    }
+
+    private class ReceivingThread extends Thread {
+        private final DatagramPacket receivePacket = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+
+        private ReceivingThread() {
+            super("MulticastMessenger-" + group.getHostAddress());
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    socket.receive(receivePacket);
+                    if (!isOfThisGroup(receivePacket)) continue;
+                    receive(Arrays.copyOfRange(receivePacket.getData(), receivePacket.getOffset() + HEADER_SIZE,
+                            receivePacket.getOffset() + receivePacket.getLength()));
+                } catch (IOException e) {
+                    if (running) e.printStackTrace();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // keep receiving
+                }
+            }
+        }
+    }
+}
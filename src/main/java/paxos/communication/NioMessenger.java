@@ -0,0 +1,225 @@
+package paxos.communication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A communication layer running on a single thread. A non-blocking {@link DatagramChannel} is polled by a
+ * {@link Selector} loop which receives the messages, sends them and ticks the listener every
+ * {@link UDPMessenger#UPDATE_PERIOD} milliseconds, so the listener is always invoked from that one thread.
+ *
+ * Messages sent from the loop itself (which is where the protocol sends its replies from) are written straight to
+ * the channel through a direct buffer. Messages sent from other threads are queued and the loop is woken up to send
+ * them. Nothing is synchronized on the hot path.
+ */
+public class NioMessenger implements CommLayer {
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final Thread loop;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Queue<PendingMessage> submitted = new ConcurrentLinkedQueue<PendingMessage>(); // from other threads
+    private final Queue<PendingMessage> pending = new ArrayDeque<PendingMessage>(); // waiting for the channel
+    private final Queue<byte[]> local = new ConcurrentLinkedQueue<byte[]>(); // sent by this member to itself
+    private final Map<Member, SocketAddress> addresses = new HashMap<Member, SocketAddress>();
+    private final int port;
+    private volatile MessageListener listener;
+    private volatile boolean running = true;
+
+    public NioMessenger(int port) throws IOException {
+        this.port = port;
+        this.channel = DatagramChannel.open();
+        this.channel.socket().setReuseAddress(true);
+        this.channel.bind(new InetSocketAddress(port));
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, SelectionKey.OP_READ);
+        this.loop = new Thread(new Runnable() {
+            public void run() {
+                runLoop();
+            }
+        }, "NioMessenger-" + port);
+        this.loop.start();
+    }
+
+    public void setListener(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    public void sendTo(List<Member> members, byte[] message) {
+        for (Member member : members) sendTo(member, message);
+    }
+
+    public void sendTo(Member member, byte[] message) {
+        if (LocalAddresses.isLocal(member, port)) {
+            deliverLocally(message);
+        } else {
+            send(new PendingMessage(member, ByteBuffer.wrap(message), false));
+        }
+    }
+
+    public void sendTo(Member member, ByteBuffer message) {
+        if (LocalAddresses.isLocal(member, port)) {
+            deliverLocally(BufferPool.toByteArray(message));
+        } else {
+            send(new PendingMessage(member, message, true));
+        }
+    }
+
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void send(PendingMessage message) {
+        if (Thread.currentThread() == loop) {
+            if (pending.isEmpty() && write(message)) return;
+            pending.add(message);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            submitted.add(message);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Messages to this member skip the channel. They are dispatched by the loop after the received ones, never from
+     * within the listener that sent them.
+     */
+    private void deliverLocally(byte[] message) {
+        local.add(message);
+        if (Thread.currentThread() != loop) selector.wakeup();
+    }
+
+    private void runLoop() {
+        long nextTick = System.currentTimeMillis();
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                if (now >= nextTick) {
+                    tick(now);
+                    nextTick = now + UDPMessenger.UPDATE_PERIOD;
+                }
+                if (local.isEmpty()) {
+                    selector.select(Math.max(1, nextTick - System.currentTimeMillis()));
+                } else {
+                    selector.selectNow();
+                }
+                selector.selectedKeys().clear();
+
+                receiveAll();
+                for (byte[] message = local.poll(); message != null; message = local.poll()) dispatch(message);
+                for (PendingMessage message = submitted.poll(); message != null; message = submitted.poll()) send(message);
+                flushPending();
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        } finally {
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void receiveAll() throws IOException {
+        while (running) {
+            receiveBuffer.clear();
+            if (channel.receive(receiveBuffer) == null) return;
+            receiveBuffer.flip();
+            byte[] message = new byte[receiveBuffer.remaining()];
+            receiveBuffer.get(message);
+            dispatch(message);
+        }
+    }
+
+    // a failing listener must not stop the loop, which does all the communication of this member
+
+    private void dispatch(byte[] message) {
+        MessageListener listener = this.listener;
+        try {
+            if (listener != null) listener.receive(message);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void tick(long time) {
+        MessageListener listener = this.listener;
+        try {
+            if (listener != null) listener.tick(time);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flushPending() {
+        while (!pending.isEmpty()) {
+            if (!write(pending.peek())) return;
+            pending.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * @return <code>false</code> if the channel could not take the message yet
+     */
+    private boolean write(PendingMessage message) {
+        sendBuffer.clear();
+        ByteBuffer data = message.data.duplicate();
+        if (data.remaining() > sendBuffer.capacity()) {
+            System.out.println("message too big " + data.remaining());
+            message.done();
+            return true;
+        }
+        sendBuffer.put(data).flip();
+        try {
+            if (channel.send(sendBuffer, address(message.member)) == 0) return false;
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+        message.done();
+        return true;
+    }
+
+    private SocketAddress address(Member member) {
+        SocketAddress address = addresses.get(member);
+        if (address == null) {
+            address = new InetSocketAddress(member.getAddress(), member.getPort());
+            addresses.put(member, address);
+        }
+        return address;
+    }
+
+    private static class PendingMessage {
+        final Member member;
+        final ByteBuffer data;
+        final boolean pooled;
+
+        PendingMessage(Member member, ByteBuffer data, boolean pooled) {
+            this.member = member;
+            this.data = data;
+            this.pooled = pooled;
+        }
+
+        void done() {
+            if (pooled) BufferPool.release(data);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package paxos.communication;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for handing objects from one thread to another, backed by an array allocated up front. It is safe
+ * only with a single producer and a single consumer; neither of them ever takes a lock. What happens when the
+ * producer finds the ring full is set by the {@link OverflowPolicy}, and how a thread waits for the other is set by
+ * the {@link WaitStrategy}.
+ */
+public class RingBuffer<T> {
+    public enum OverflowPolicy {
+        /** the offered element is dropped and {@link #offer(Object)} returns false */
+        DROP,
+        /** the producer waits until the consumer makes room */
+        BLOCK
+    }
+
+    public enum WaitStrategy {
+        /** lowest latency, but keeps a core busy while waiting */
+        BUSY_SPIN,
+        /** gives the core to other threads while waiting */
+        YIELD,
+        /**
+         * spins and yields for a short while, then parks: in {@link #await(int)} until the thread is unparked, in
+         * {@link #idle(int)} for naps that grow up to 10 milliseconds
+         */
+        PARK;
+
+        private static final int SPINS = 100;
+        private static final int YIELDS = 100;
+        private static final long MIN_PARK_NANOS = 50 * 1000;
+        private static final long MAX_PARK_NANOS = 10 * 1000 * 1000;
+        private static final int MAX_IDLE_COUNT = SPINS + YIELDS + 8; // the naps have grown past MAX_PARK_NANOS
+
+        /**
+         * Waits a little, for the given number of times in a row that the caller found nothing to do.
+         *
+         * @return the count to pass the next time, which stops growing once the waits do
+         */
+        public int idle(int idleCount) {
+            if (this == BUSY_SPIN || (this == PARK && idleCount < SPINS)) {
+                // spinning
+            } else if (this == YIELD || idleCount < SPINS + YIELDS) {
+                Thread.yield();
+            } else {
+                int naps = Math.min(idleCount, MAX_IDLE_COUNT) - SPINS - YIELDS;
+                LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << naps, MAX_PARK_NANOS));
+            }
+            return Math.min(idleCount + 1, MAX_IDLE_COUNT);
+        }
+
+        /**
+         * Like {@link #idle(int)}, for a thread that is unparked when there is something to do. With PARK, once done
+         * spinning and yielding, it blocks until then.
+         *
+         * @return the count to pass the next time
+         */
+        public int await(int idleCount) {
+            if (this != PARK || idleCount < SPINS + YIELDS) return idle(idleCount);
+            LockSupport.park(this);
+            return idleCount;
+        }
+    }
+
+    private final Object[] elements;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong head = new AtomicLong(0); // the next position to read, written by the consumer only
+    private final AtomicLong tail = new AtomicLong(0); // the next position to write, written by the producer only
+    private final AtomicLong dropped = new AtomicLong(0);
+    private volatile Thread consumer;
+
+    /**
+     * @param capacity the number of elements the ring holds, rounded up to a power of two
+     */
+    public RingBuffer(int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || capacity > 1 << 30) throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.elements = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the thread that takes the elements, which the producer unparks after each offer when waiting with PARK.
+     * {@link #take()} sets it to the calling thread. A consumer polling several rings sets it on all of them and
+     * waits with {@link WaitStrategy#await(int)}.
+     */
+    public void setConsumer(Thread consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Called by the producer only.
+     *
+     * @return false if the ring was full and the element was dropped
+     */
+    public boolean offer(T element) throws InterruptedException {
+        if (element == null) throw new NullPointerException();
+        long position = tail.get();
+        int idleCount = 0;
+        while (position - head.get() >= elements.length) {
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (Thread.interrupted()) throw new InterruptedException();
+            idleCount = waitStrategy.idle(idleCount);
+        }
+        elements[(int) position & mask] = element;
+        if (waitStrategy == WaitStrategy.PARK) {
+            tail.set(position + 1); // publishes the element before looking for a consumer to unpark
+            Thread consumer = this.consumer;
+            if (consumer != null) LockSupport.unpark(consumer);
+        } else {
+            tail.lazySet(position + 1); // publishes the element
+        }
+        return true;
+    }
+
+    /**
+     * Called by the consumer only.
+     *
+     * @return the oldest element, or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long position = head.get();
+        if (position >= tail.get()) return null;
+        int index = (int) position & mask;
+        T element = (T) elements[index];
+        elements[index] = null;
+        head.lazySet(position + 1); // frees the slot
+        return element;
+    }
+
+    /**
+     * Called by the consumer only. Waits with the wait strategy of the ring until there is an element.
+     */
+    public T take() throws InterruptedException {
+        if (consumer != Thread.currentThread()) consumer = Thread.currentThread();
+        int idleCount = 0;
+        T element;
+        while ((element = poll()) == null) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            idleCount = waitStrategy.await(idleCount);
+        }
+        return element;
+    }
+
+    public int size() {
+        long position = head.get();
+        return (int) (tail.get() - position);
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * @return the number of elements dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
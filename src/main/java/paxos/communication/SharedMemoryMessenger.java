@@ -0,0 +1,360 @@
+package paxos.communication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A communication layer for members running on the same host, in one process or several. Every member owns an inbox,
+ * a ring of messages in a memory-mapped file named after its port, and the other members write their messages
+ * straight into it. Nothing goes through the network stack, and a message may be as large as the ring.
+ *
+ * The writers of an inbox take turns through a lock on the file, the owner takes the same lock to collect what was
+ * written. A single thread per member collects the messages, dispatches them and ticks the listener every
+ * {@link UDPMessenger#UPDATE_PERIOD} milliseconds. A message that does not fit in the inbox of a member that is not
+ * keeping up, or that is larger than the inbox, is dropped and counted, as a datagram would be.
+ *
+ * When its inbox stays empty the thread waits with its {@link RingBuffer.WaitStrategy}, which with PARK means naps of
+ * up to 10 milliseconds. Writers in the same process cut the nap short, those in other processes cannot.
+ *
+ * Only the port of a member is used, so all the members must be on this host and use the same directory.
+ */
+public class SharedMemoryMessenger implements CommLayer {
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "paxos-rings");
+
+    private final File directory;
+    private final int capacity;
+    private final Ring inbox;
+    private final Map<Integer, Ring> outboxes = new HashMap<Integer, Ring>();
+    private final RingBuffer.WaitStrategy waitStrategy;
+    private final Thread loop;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private volatile MessageListener listener;
+    private volatile boolean running = true;
+
+    public SharedMemoryMessenger(int port) throws IOException {
+        this(DEFAULT_DIRECTORY, port, DEFAULT_CAPACITY, RingBuffer.WaitStrategy.PARK);
+    }
+
+    /**
+     * @param capacity the size of the inbox in bytes, if this member is the first to use it
+     * @param waitStrategy how the thread of this member waits for messages
+     */
+    public SharedMemoryMessenger(File directory, int port, int capacity, RingBuffer.WaitStrategy waitStrategy) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+        this.directory = directory;
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+        this.inbox = new Ring(inboxFile(directory, port), capacity);
+        this.inbox.discard(); // whatever a previous owner left
+        this.loop = new Thread(new Runnable() {
+            public void run() {
+                runLoop();
+            }
+        }, "SharedMemoryMessenger-" + port);
+        this.inbox.setReader(loop);
+        this.loop.start();
+    }
+
+    public void setListener(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    public void sendTo(List<Member> members, byte[] message) {
+        for (Member member : members) {
+            sendTo(member, message);
+        }
+    }
+
+    public void sendTo(Member member, byte[] message) {
+        send(member, ByteBuffer.wrap(message));
+    }
+
+    public void sendTo(Member member, ByteBuffer message) {
+        try {
+            send(member, message);
+        } finally {
+            BufferPool.release(message);
+        }
+    }
+
+    /**
+     * Stops the thread of this member and waits for it to close the files.
+     */
+    public void close() {
+        running = false;
+        if (Thread.currentThread() == loop) return; // closed by the listener, the loop closes the files on its way out
+        LockSupport.unpark(loop);
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of messages dropped because the inbox of their member was full or too small for them
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void send(Member member, ByteBuffer message) {
+        try {
+            Ring ring = ringOf(member);
+            if (ring != null && !ring.write(message)) dropped.incrementAndGet();
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the inbox of the member, or null once closed
+     */
+    private Ring ringOf(Member member) throws IOException {
+        synchronized (outboxes) {
+            if (!running) return null; // the outboxes are closed or about to be
+            Ring ring = outboxes.get(member.getPort());
+            if (ring == null) {
+                ring = new Ring(inboxFile(directory, member.getPort()), capacity);
+                outboxes.put(member.getPort(), ring);
+            }
+            return ring;
+        }
+    }
+
+    private static File inboxFile(File directory, int port) {
+        return new File(directory, "inbox-" + port);
+    }
+
+    private void runLoop() {
+        List<byte[]> messages = new ArrayList<byte[]>();
+        long nextTick = System.currentTimeMillis();
+        int idleCount = 0;
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                if (now >= nextTick) {
+                    tick(now);
+                    nextTick = now + UDPMessenger.UPDATE_PERIOD;
+                }
+                if (inbox.readAll(messages)) {
+                    for (byte[] message : messages) {
+                        if (running) dispatch(message);
+                    }
+                    messages.clear();
+                    idleCount = 0;
+                } else {
+                    idleCount = waitStrategy.idle(idleCount);
+                }
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        } finally {
+            inbox.setReader(null);
+            inbox.close();
+            synchronized (outboxes) {
+                for (Ring ring : outboxes.values()) ring.close();
+                outboxes.clear();
+            }
+        }
+    }
+
+    // a failing listener must not stop the loop, which does all the communication of this member
+
+    private void dispatch(byte[] message) {
+        MessageListener listener = this.listener;
+        try {
+            if (listener != null) listener.receive(message);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void tick(long time) {
+        MessageListener listener = this.listener;
+        try {
+            if (listener != null) listener.tick(time);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A ring of messages in a file: a header holding the positions the owner has read up to (head) and the writers
+     * have written up to (tail), then the messages, each preceded by its length, wrapping around at the end of the
+     * file. Positions only ever grow.
+     *
+     * A lock on the file keeps other processes out. Within this process, where a second lock on the same file would
+     * fail, the rings of the same file share a monitor.
+     */
+    private static class Ring {
+        private static final ConcurrentMap<String, Object> monitors = new ConcurrentHashMap<String, Object>();
+        private static final ConcurrentMap<String, Thread> readers = new ConcurrentHashMap<String, Thread>();
+        private static final int MAGIC = 0x50415853;
+        private static final int HEADER_SIZE = 64;
+        private static final int MAGIC_POSITION = 0;
+        private static final int CAPACITY_POSITION = 4;
+        private static final int HEAD_POSITION = 8;
+        private static final int TAIL_POSITION = 16;
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final String path;
+        private final Object monitor;
+        private final int capacity;
+        private final byte[] lengthBytes = new byte[4];
+
+        private Ring(File file, int capacity) throws IOException {
+            this.path = file.getCanonicalPath();
+            monitors.putIfAbsent(path, new Object());
+            this.monitor = monitors.get(path);
+            this.file = new RandomAccessFile(file, "rw");
+            this.channel = this.file.getChannel();
+            synchronized (monitor) {
+                FileLock lock = channel.lock();
+                try {
+                    if (channel.size() < HEADER_SIZE || this.file.readInt() != MAGIC) {
+                        this.file.setLength(HEADER_SIZE + capacity);
+                        this.file.seek(MAGIC_POSITION);
+                        this.file.writeInt(MAGIC);
+                        this.file.writeInt(capacity);
+                        this.file.writeLong(0);
+                        this.file.writeLong(0);
+                    }
+                    this.file.seek(CAPACITY_POSITION);
+                    this.capacity = this.file.readInt();
+                    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + this.capacity);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        /**
+         * Sets the thread of this process that reads the ring, which writers of this process unpark.
+         *
+         * @param reader the thread, or null when it stops reading
+         */
+        private void setReader(Thread reader) {
+            if (reader == null) {
+                readers.remove(path);
+            } else {
+                readers.put(path, reader);
+            }
+        }
+
+        /**
+         * @return false if the message did not fit, or never could
+         */
+        private boolean write(ByteBuffer message) throws IOException {
+            int length = message.remaining();
+            if (4 + length > capacity) return false; // would never fit
+            synchronized (monitor) {
+                FileLock lock = channel.lock(0, HEADER_SIZE, false);
+                try {
+                    long head = buffer.getLong(HEAD_POSITION);
+                    long tail = buffer.getLong(TAIL_POSITION);
+                    if (tail - head + 4 + length > capacity) return false;
+                    ByteBuffer.wrap(lengthBytes).putInt(0, length);
+                    put(tail, ByteBuffer.wrap(lengthBytes));
+                    put(tail + 4, message.duplicate());
+                    buffer.putLong(TAIL_POSITION, tail + 4 + length);
+                } finally {
+                    lock.release();
+                }
+                Thread reader = readers.get(path);
+                if (reader != null) LockSupport.unpark(reader);
+                return true;
+            }
+        }
+
+        /**
+         * Collects every message written so far.
+         *
+         * @return false if there was none
+         */
+        private boolean readAll(List<byte[]> messages) throws IOException {
+            // looking at the tail without the lock is only a hint, which saves taking the lock while idle
+            if (buffer.getLong(TAIL_POSITION) == buffer.getLong(HEAD_POSITION)) return false;
+            synchronized (monitor) {
+                FileLock lock = channel.lock(0, HEADER_SIZE, false);
+                try {
+                    long head = buffer.getLong(HEAD_POSITION);
+                    long tail = buffer.getLong(TAIL_POSITION);
+                    while (head < tail) {
+                        get(head, lengthBytes);
+                        byte[] message = new byte[ByteBuffer.wrap(lengthBytes).getInt(0)];
+                        get(head + 4, message);
+                        messages.add(message);
+                        head += 4 + message.length;
+                    }
+                    buffer.putLong(HEAD_POSITION, head);
+                    return !messages.isEmpty();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        private void discard() throws IOException {
+            synchronized (monitor) {
+                FileLock lock = channel.lock(0, HEADER_SIZE, false);
+                try {
+                    buffer.putLong(HEAD_POSITION, buffer.getLong(TAIL_POSITION));
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        private void put(long position, ByteBuffer source) {
+            int index = (int) (position % capacity);
+            int first = Math.min(source.remaining(), capacity - index);
+            ByteBuffer target = buffer.duplicate();
+            target.position(HEADER_SIZE + index);
+            ByteBuffer part = source.duplicate();
+            part.limit(part.position() + first);
+            target.put(part);
+            source.position(source.position() + first);
+            if (source.hasRemaining()) {
+                target.position(HEADER_SIZE);
+                target.put(source);
+            }
+        }
+
+        private void get(long position, byte[] destination) {
+            int index = (int) (position % capacity);
+            int first = Math.min(destination.length, capacity - index);
+            ByteBuffer source = buffer.duplicate();
+            source.position(HEADER_SIZE + index);
+            source.get(destination, 0, first);
+            if (first < destination.length) {
+                source.position(HEADER_SIZE);
+                source.get(destination, first, destination.length - first);
+            }
+        }
+
+        private void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package paxos.communication;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A communication layer over TCP, for networks where the kernel should take care of retransmissions and congestion
+ * and where messages may be larger than a datagram. Each message is sent as a frame made of its length on four
+ * bytes followed by the message itself.
+ *
+ * Messages to a member go through one persistent connection, opened on the first message and written by a thread
+ * of its own, which flushes all the messages queued meanwhile at once. When the member cannot be reached the
+ * messages are dropped, as a datagram would be, and the connection is attempted again after a delay that doubles
+ * up to {@link #MAX_BACKOFF}. The protocol resends what was lost. Incoming connections are read by a thread each,
+ * and the messages are passed to the listener by a single dispatching thread.
+ */
+public class TcpMessenger implements CommLayer {
+    public static final int MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+    public static final int MIN_BACKOFF = 50;
+    public static final int MAX_BACKOFF = 5000;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final int MAX_QUEUED_MESSAGES = 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final Map<Member, Connection> connections = new HashMap<Member, Connection>();
+    private final Set<Socket> incoming = Collections.synchronizedSet(new HashSet<Socket>());
+    private final AcceptingThread acceptingThread;
+    private final TickingThread tickingThread;
+    private final DispatchingThread dispatchThread;
+    private final BlockingQueue<byte[]> msgQueue = new LinkedBlockingQueue<byte[]>();
+    private MessageListener listener;
+    private volatile boolean running = true;
+
+    public TcpMessenger() throws IOException {
+        this(Member.DEFAULT_PORT);
+    }
+
+    public TcpMessenger(int port) throws IOException {
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        this.acceptingThread = new AcceptingThread();
+        this.tickingThread = new TickingThread();
+        this.dispatchThread = new DispatchingThread();
+        this.acceptingThread.start();
+        this.tickingThread.start();
+        this.dispatchThread.start();
+    }
+
+    public void setListener(MessageListener listener) {
+        this.listener = listener;
+    }
+
+    public void sendTo(List<Member> members, byte[] message) {
+        for (Member member : members) {
+            sendTo(member, message);
+        }
+    }
+
+    public void sendTo(Member member, byte[] message) {
+        if (message.length > MAX_MESSAGE_SIZE) throw new IllegalArgumentException("message too big " + message.length);
+        if (LocalAddresses.isLocal(member, serverSocket.getLocalPort())) {
+            msgQueue.offer(message); // no need for a connection to ourselves
+            return;
+        }
+        Connection connection = connectionTo(member);
+        if (connection != null) connection.queue.offer(message); // dropped if the member has been unreachable for long
+    }
+
+    public void sendTo(Member member, ByteBuffer message) {
+        sendTo(member, BufferPool.toByteArray(message));
+    }
+
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (connections) {
+            for (Connection connection : connections.values()) {
+                connection.interrupt();
+                connection.disconnect();
+            }
+        }
+        synchronized (incoming) {
+            for (Socket socket : incoming) {
+                closeQuietly(socket);
+            }
+        }
+        dispatchThread.interrupt();
+    }
+
+    private Connection connectionTo(Member member) {
+        synchronized (connections) {
+            if (!running) return null;
+            Connection connection = connections.get(member);
+            if (connection == null) {
+                connection = new Connection(member);
+                connections.put(member, connection);
+                connection.start();
+            }
+            return connection;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private class Connection extends Thread {
+        private final Member member;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(MAX_QUEUED_MESSAGES);
+        private Socket socket;
+        private DataOutputStream out;
+        private long retryAt = 0;
+        private int backoff = MIN_BACKOFF;
+
+        private Connection(Member member) {
+            super("TcpMessenger-" + member);
+            this.member = member;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    byte[] message = queue.take();
+                    if (!connect()) continue;
+                    try {
+                        do {
+                            out.writeInt(message.length);
+                            out.write(message);
+                        } while ((message = queue.poll()) != null);
+                        out.flush();
+                    } catch (IOException e) {
+                        if (running) System.out.println("Lost connection to " + member + ": " + e.getMessage());
+                        disconnect();
+                        backOff();
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+
+        private boolean connect() {
+            if (socket != null) return true;
+            if (System.currentTimeMillis() < retryAt) return false;
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(member.getAddress(), member.getPort()), CONNECT_TIMEOUT);
+                this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE));
+                this.socket = socket;
+                this.backoff = MIN_BACKOFF;
+                return true;
+            } catch (IOException e) {
+                closeQuietly(socket);
+                backOff();
+                return false;
+            }
+        }
+
+        private void backOff() {
+            retryAt = System.currentTimeMillis() + backoff;
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+
+        private void disconnect() {
+            Socket socket = this.socket;
+            if (socket != null) closeQuietly(socket);
+            this.socket = null;
+            this.out = null;
+        }
+    }
+
+    private class AcceptingThread extends Thread {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    incoming.add(socket);
+                    new ReadingThread(socket).start();
+                } catch (IOException e) {
+                    if (running) e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class ReadingThread extends Thread {
+        private final Socket socket;
+
+        private ReadingThread(Socket socket) {
+            super("TcpMessenger-reader-" + socket.getRemoteSocketAddress());
+            this.socket = socket;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (running) {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_MESSAGE_SIZE) throw new IOException("message too big " + length);
+                    byte[] message = new byte[length];
+                    in.readFully(message);
+                    msgQueue.put(message);
+                }
+            } catch (EOFException e) {
+                // the other side closed the connection
+            } catch (SocketException e) {
+                // closed on either side
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            } catch (InterruptedException e) {
+                if (running) e.printStackTrace();
+            } finally {
+                incoming.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private class DispatchingThread extends Thread {
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    byte[] msg = msgQueue.take();
+                    if (running) dispatch(msg);
+                }
+            } catch (InterruptedException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private class TickingThread extends Thread {
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    tick(System.currentTimeMillis());
+                    sleep(UDPMessenger.UPDATE_PERIOD);
+                }
+            } catch (Exception e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    private synchronized void dispatch(byte[] msg) {
+        if (listener != null) listener.receive(msg);
+    }
+
+    private synchronized void tick(long time) {
+        if (listener != null) listener.tick(time);
+    }
+}
@@ -1,37 +1,79 @@
 package paxos.communication;
 
-import paxos.PaxosUtils;
-
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 public class UDPMessenger implements CommLayer {
     public static final int BUFFER_SIZE = 128*1024;
     public static final int UPDATE_PERIOD = 100;
+    public static final int DISPATCH_QUEUE_CAPACITY = 4096;
     private final DatagramSocket socket;
-    private final DatagramPacket receivePacket;
-    private final ReceivingThread receivingThread;
+    private final DatagramSocket[] receivingSockets;
+    private final DatagramPacket sendPacket = new DatagramPacket(new byte[0], 0);
+    private final ReceivingThread[] receivingThreads;
+    private final SendingThread sendingThread;
     private final TickingThread tickingThread;
     private final DispatchingThread dispatchThread;
     private MessageListener listener;
-    private boolean running = true;
-    private BlockingQueue<byte[]> msgQueue = new LinkedBlockingQueue<byte[]>();
+    private volatile boolean running = true;
+    private final RingBuffer.WaitStrategy waitStrategy;
+    private final Queue<OutgoingMessage> sendQueue = new ConcurrentLinkedQueue<OutgoingMessage>();
+    private final Queue<byte[]> localQueue = new ConcurrentLinkedQueue<byte[]>(); // sent by this member to itself
+    private final int port;
 
     public UDPMessenger() throws SocketException, UnknownHostException {
         this(2440);
     }
 
     public UDPMessenger(int port) throws SocketException, UnknownHostException {
-        this.socket = new DatagramSocket(port);
+        this(port, 1);
+    }
+
+    /**
+     * Receives on several sockets bound to the same port with SO_REUSEPORT, each read by a thread of its own. The
+     * kernel spreads the senders over the sockets and keeps each sender on the same one, so the messages of a sender
+     * are still dispatched in the order they arrived. Where SO_REUSEPORT is not available a single socket is used.
+     *
+     * @param receivers the number of sockets to receive on
+     */
+    public UDPMessenger(int port, int receivers) throws SocketException, UnknownHostException {
+        this(port, receivers, RingBuffer.WaitStrategy.PARK);
+    }
+
+    /**
+     * Each receiving thread hands the messages over to the dispatching thread through a ring of
+     * {@link #DISPATCH_QUEUE_CAPACITY} messages. When the dispatching thread falls that far behind, further messages
+     * are dropped, as the socket would drop them.
+     *
+     * @param waitStrategy how the dispatching thread waits for messages
+     */
+    public UDPMessenger(int port, int receivers, RingBuffer.WaitStrategy waitStrategy) throws SocketException, UnknownHostException {
+        this.waitStrategy = waitStrategy;
+        this.port = port;
+        this.receivingSockets = openSockets(port, receivers);
+        this.socket = receivingSockets[0];
         socket.setReuseAddress(true);
-        receivePacket = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE, socket.getLocalAddress(), port);
-        this.receivingThread = new ReceivingThread();
+        this.receivingThreads = new ReceivingThread[receivingSockets.length];
+        for (int i = 0; i < receivingSockets.length; i++) {
+            receivingThreads[i] = new ReceivingThread(receivingSockets[i]);
+        }
+        this.sendingThread = new SendingThread();
         this.tickingThread = new TickingThread();
         this.dispatchThread = new DispatchingThread();
-        this.receivingThread.start();
+        for (ReceivingThread receivingThread : receivingThreads) {
+            receivingThread.msgQueue.setConsumer(dispatchThread);
+        }
+        this.sendingThread.start();
+        for (ReceivingThread receivingThread : receivingThreads) {
+            receivingThread.start();
+        }
         this.tickingThread.start();
         this.dispatchThread.start();
     }
@@ -41,41 +83,112 @@ public class UDPMessenger implements CommLayer {
     }
 
     public void sendTo(List<Member> members, byte[] message) {
-        DatagramPacket packet = new DatagramPacket(message, message.length);
         for (Member member : members) {
-            try {
-                packet.setAddress(member.getAddress());
-                packet.setPort(member.getPort());
-                synchronized (this) {
-                    socket.send(packet);
-                }
-            } catch (IOException e) {
-                if (running) e.printStackTrace();
-                // continue to next member
-            }
+            sendTo(member, message);
         }
     }
 
     public void sendTo(Member member, byte[] message) {
-        DatagramPacket packet = new DatagramPacket(message, message.length);
-        packet.setAddress(member.getAddress());
-        packet.setPort(member.getPort());
-        try {
-            synchronized (this) {
-                socket.send(packet);
-            }
-        } catch (IOException e) {
-            if (running) e.printStackTrace();
+        if (LocalAddresses.isLocal(member, port)) {
+            localQueue.offer(message);
+            LockSupport.unpark(dispatchThread);
+        } else {
+            submit(new OutgoingMessage(member, message, null));
+        }
+    }
+
+    public void sendTo(Member member, ByteBuffer message) {
+        if (!message.hasArray() || LocalAddresses.isLocal(member, port)) {
+            sendTo(member, BufferPool.toByteArray(message));
+            return;
         }
+        submit(new OutgoingMessage(member, null, message));
     }
 
     public void close() {
         this.running = false;
-        this.socket.close();
+        LockSupport.unpark(sendingThread);
+        for (DatagramSocket receivingSocket : receivingSockets) {
+            receivingSocket.close();
+        }
         this.dispatchThread.interrupt();
     }
 
+    /**
+     * @return the number of messages dropped because the dispatching thread could not keep up
+     */
+    public long getDroppedMessages() {
+        long dropped = 0;
+        for (ReceivingThread receivingThread : receivingThreads) {
+            dropped += receivingThread.msgQueue.getDropped();
+        }
+        return dropped;
+    }
+
+    private static DatagramSocket[] openSockets(int port, int count) throws SocketException {
+        if (count <= 1) return new DatagramSocket[] {new DatagramSocket(port)};
+        SocketOption<Boolean> reusePort = reusePortOption();
+        DatagramSocket[] sockets = new DatagramSocket[count];
+        boolean opened = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                sockets[i] = channel.socket();
+                if (reusePort == null || !channel.supportedOptions().contains(reusePort)) {
+                    closeAll(sockets);
+                    System.out.println("SO_REUSEPORT is not supported, receiving on a single socket");
+                    return new DatagramSocket[] {new DatagramSocket(port)};
+                }
+                channel.setOption(reusePort, true);
+                channel.bind(new InetSocketAddress(port));
+            }
+            opened = true;
+        } catch (SocketException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (!opened) closeAll(sockets);
+        }
+        return sockets;
+    }
+
+    private static void closeAll(DatagramSocket[] sockets) {
+        for (DatagramSocket socket : sockets) {
+            if (socket != null) socket.close();
+        }
+    }
+
+    /**
+     * @return StandardSocketOptions.SO_REUSEPORT, or null on Java versions that do not have it
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (NoSuchFieldException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Receives every datagram into the same packet and queues only the bytes that were actually received, so a
+     * heartbeat costs a few dozen bytes instead of a copy of the whole receive buffer. The listeners take the length
+     * of the message from the length of the array, so the bytes are copied into an array of their own rather than
+     * lent out in a recycled buffer.
+     */
     private class ReceivingThread extends Thread {
+        private final DatagramSocket socket;
+        private final DatagramPacket receivePacket = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+        private final RingBuffer<byte[]> msgQueue =
+                new RingBuffer<byte[]>(DISPATCH_QUEUE_CAPACITY, waitStrategy, RingBuffer.OverflowPolicy.DROP);
+
+        private ReceivingThread(DatagramSocket socket) {
+            this.socket = socket;
+        }
+
         @Override
         public void run() {
             while (running) {
@@ -84,7 +197,8 @@ public class UDPMessenger implements CommLayer {
 //                    System.out.println("received message");
                     if (receivePacket.getLength() > BUFFER_SIZE)
                         throw new IOException("message too big " + receivePacket.getLength());
-                    msgQueue.put(receivePacket.getData().clone());
+                    msgQueue.offer(Arrays.copyOfRange(receivePacket.getData(), receivePacket.getOffset(),
+                            receivePacket.getOffset() + receivePacket.getLength()));
                 } catch (IOException e) {
                     if (running) e.printStackTrace();
                 } catch (InterruptedException e) {
@@ -94,16 +208,110 @@ public class UDPMessenger implements CommLayer {
         }
     }
 
-    private class DispatchingThread extends Thread {
+    private void submit(OutgoingMessage message) {
+        if (!running) {
+            message.release();
+            return;
+        }
+        sendQueue.offer(message);
+        LockSupport.unpark(sendingThread);
+        if (!running) discardQueued(); // closed meanwhile, the sending thread may be gone already
+    }
+
+    /**
+     * Empties the send queue once closed, giving the pooled buffers back.
+     */
+    private void discardQueued() {
+        OutgoingMessage message;
+        while ((message = sendQueue.poll()) != null) message.release();
+    }
+
+    private static class OutgoingMessage {
+        private final Member member;
+        private final byte[] bytes;
+        private final ByteBuffer buffer;
+
+        private OutgoingMessage(Member member, byte[] bytes, ByteBuffer buffer) {
+            this.member = member;
+            this.bytes = bytes;
+            this.buffer = buffer;
+        }
+
+        private void release() {
+            if (buffer != null) BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * The only thread writing to the socket. The other threads queue their messages and wake it up, so they never
+     * wait for the socket or for each other. Once awake it sends everything queued before parking again. What is still
+     * queued when the messenger is closed is dropped.
+     */
+    private class SendingThread extends Thread {
+        private SendingThread() {
+            setDaemon(true);
+        }
+
         @Override
         public void run() {
+            while (running) {
+                OutgoingMessage message = sendQueue.poll();
+                if (message == null) {
+                    LockSupport.park(this);
+                } else {
+                    send(message);
+                }
+            }
+            discardQueued();
+        }
+
+        private void send(OutgoingMessage message) {
             try {
-                while (running) {
-                    byte[] msg = msgQueue.take();
-                    if (running) dispatch(msg);
+                if (message.bytes != null) {
+                    sendPacket.setData(message.bytes);
+                } else {
+                    ByteBuffer buffer = message.buffer;
+                    sendPacket.setData(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
                 }
-            } catch (InterruptedException e) {
+                sendPacket.setAddress(message.member.getAddress());
+                sendPacket.setPort(message.member.getPort());
+                socket.send(sendPacket);
+            } catch (IOException e) {
                 if (running) e.printStackTrace();
+            } finally {
+                message.release();
+            }
+        }
+    }
+
+    /**
+     * Takes one message from each receiving thread in turn, so that none of them starves the others, and one of the
+     * messages this member sent to itself, which never went through the socket. When there is none it waits with the
+     * wait strategy until a receiving thread or a local send unparks it.
+     */
+    private class DispatchingThread extends Thread {
+        @Override
+        public void run() {
+            int idleCount = 0;
+            while (running) {
+                boolean dispatched = false;
+                for (ReceivingThread receivingThread : receivingThreads) {
+                    byte[] msg = receivingThread.msgQueue.poll();
+                    if (msg != null && running) {
+                        dispatch(msg);
+                        dispatched = true;
+                    }
+                }
+                byte[] msg = localQueue.poll();
+                if (msg != null && running) {
+                    dispatch(msg);
+                    dispatched = true;
+                }
+                if (dispatched) {
+                    idleCount = 0;
+                } else {
+                    idleCount = waitStrategy.await(idleCount);
+                }
             }
         }
     }
@@ -113,7 +321,7 @@ public class UDPMessenger implements CommLayer {
         public void run() {
             try {
                 while (running) {
-                    dispatch(PaxosUtils.serialize(new Tick(System.currentTimeMillis())));
+                    tick(System.currentTimeMillis());
                     sleep(UPDATE_PERIOD);
                 }
             } catch (Exception e) {
@@ -126,4 +334,8 @@ public class UDPMessenger implements CommLayer {
         if (listener != null) listener.receive(msg);
     }
 
+    private synchronized void tick(long time) {
+        if (listener != null) listener.tick(time);
+    }
+
 }
@@ -0,0 +1,170 @@
+package paxos.compression;
+
+import paxos.communication.BufferPool;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+import paxos.communication.UDPMessenger;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This communication layer compresses messages larger than a threshold before passing them to the underlying layer.
+ * Compressed messages start with a marker byte followed by the uncompressed length, every other message is sent as it
+ * is. If a message does not compress well, the following ones are sent uncompressed, for longer and longer stretches
+ * while the ratio stays poor, so that incompressible traffic costs little CPU.
+ *
+ * Put it below the {@link paxos.fragmentation.FragmentingMessenger}, so that messages which compress below the
+ * fragment size are not fragmented.
+ *
+ * Compressed messages claiming to be longer than the maximum length once uncompressed are dropped without allocating
+ * anything, so that a corrupt or hostile datagram cannot make the receiver allocate huge arrays.
+ */
+public class CompressingMessenger implements CommLayer, CommLayer.MessageListener {
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_LENGTH = UDPMessenger.BUFFER_SIZE;
+    private static final byte MARKER = 'Z';
+    private static final int HEADER_SIZE = 5;
+    private static final double MAX_RATIO = 0.9;
+    private static final int MAX_BACKOFF = 64;
+
+    private final CommLayer messenger;
+    private final int threshold;
+    private final int maxLength;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final AtomicLong bytesSaved = new AtomicLong(0);
+    private MessageListener upstreamListener;
+    private int backoff = 1;
+    private int skipped = 0;
+    private boolean closed = false;
+
+    public CompressingMessenger(CommLayer messenger) {
+        this(messenger, DEFAULT_THRESHOLD);
+    }
+
+    public CompressingMessenger(CommLayer messenger, int threshold) {
+        this(messenger, threshold, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param maxLength the longest message this layer accepts to uncompress
+     */
+    public CompressingMessenger(CommLayer messenger, int threshold, int maxLength) {
+        this.messenger = messenger;
+        this.threshold = threshold;
+        this.maxLength = maxLength;
+        this.messenger.setListener(this);
+    }
+
+    public void setListener(MessageListener listener) {
+        this.upstreamListener = listener;
+    }
+
+    public void sendTo(List<Member> members, byte[] message) {
+        byte[] compressed = compress(message);
+        if (compressed != null) messenger.sendTo(members, compressed);
+    }
+
+    public void sendTo(Member member, byte[] message) {
+        byte[] compressed = compress(message);
+        if (compressed != null) messenger.sendTo(member, compressed);
+    }
+
+    public void sendTo(Member member, ByteBuffer message) {
+        if (message.remaining() < threshold && (message.remaining() == 0 || message.get(message.position()) != MARKER)) {
+            messenger.sendTo(member, message);
+        } else {
+            sendTo(member, BufferPool.toByteArray(message));
+        }
+    }
+
+    /**
+     * Closes the underlying layer and frees the native memory of the compressor. Messages sent afterwards go out
+     * uncompressed, except those starting with the marker, which could not be wrapped and are dropped. Compressed
+     * messages still arriving are dropped.
+     */
+    public void close() {
+        messenger.close();
+        synchronized (this) {
+            closed = true;
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    public void receive(byte[] message) {
+        byte[] original = isCompressed(message) ? decompress(message) : message;
+        if (upstreamListener != null && original != null) upstreamListener.receive(original);
+    }
+
+    public void tick(long time) {
+        if (upstreamListener != null) upstreamListener.tick(time);
+    }
+
+    /**
+     * @return the number of bytes that compression has saved so far
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * @return the message to send, or null if it must be dropped
+     */
+    private synchronized byte[] compress(byte[] message) {
+        // messages starting with the marker are always wrapped, otherwise the receiver would take them as compressed
+        boolean mustWrap = message.length > 0 && message[0] == MARKER;
+        if (closed) return mustWrap ? null : message;
+        if (!mustWrap && (message.length < threshold || skip())) return message;
+
+        int maxLength = mustWrap ? message.length + message.length / 100 + 64 : (int) (message.length * MAX_RATIO);
+        byte[] compressed = new byte[HEADER_SIZE + maxLength];
+        deflater.reset();
+        deflater.setInput(message);
+        deflater.finish();
+        int length = deflater.deflate(compressed, HEADER_SIZE, maxLength);
+        if (!deflater.finished()) {
+            backOff();
+            return message;
+        }
+        backoff = 1;
+        ByteBuffer.wrap(compressed).put(MARKER).putInt(message.length);
+        bytesSaved.addAndGet(message.length - HEADER_SIZE - length);
+        return Arrays.copyOf(compressed, HEADER_SIZE + length);
+    }
+
+    private boolean skip() {
+        if (skipped == 0) return false;
+        skipped--;
+        return true;
+    }
+
+    private void backOff() {
+        skipped = backoff;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+
+    private boolean isCompressed(byte[] message) {
+        return message.length >= HEADER_SIZE && message[0] == MARKER;
+    }
+
+    private synchronized byte[] decompress(byte[] message) {
+        int length = ByteBuffer.wrap(message).getInt(1);
+        if (closed || length < 0 || length > maxLength) return null;
+        byte[] original = new byte[length];
+        inflater.reset();
+        inflater.setInput(message, HEADER_SIZE, message.length - HEADER_SIZE);
+        try {
+            if (inflater.inflate(original) != original.length || !inflater.finished()) throw new RuntimeException("Corrupt compressed message");
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+        return original;
+    }
+}
@@ -1,9 +1,9 @@
 package paxos.dynamic;
 
 import paxos.*;
+import paxos.communication.BufferPool;
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
 import paxos.communication.UDPMessenger;
 import paxos.fragmentation.FragmentingGroup;
 
@@ -12,6 +12,7 @@ import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -79,9 +80,12 @@ public class DynamicGroup implements Receiver {
         final Serializable[] messageHolder = new Serializable[1];
         commLayer.setListener(new CommLayer.MessageListener() {
             public void receive(byte[] bytes) {
+                if (DynamicGroupMessage.isGroupMessage(bytes)) return;
                 Serializable message = (Serializable) PaxosUtils.deserialize(bytes);
                 if (message instanceof GroupInfo) messageHolder[0] = message;
             }
+
+            public void tick(long time) {}
         });
 
         commLayer.sendTo(member, PaxosUtils.serialize(new JoinRequest(me)));
@@ -181,11 +185,15 @@ public class DynamicGroup implements Receiver {
         }
 
         public void sendTo(List<Member> members, byte[] message) {
-            commLayer.sendTo(members, PaxosUtils.serialize(new DynamicGroupMessage(groupID, message)));
+            commLayer.sendTo(members, DynamicGroupMessage.encode(groupID, message));
         }
 
         public void sendTo(Member member, byte[] message) {
-            commLayer.sendTo(member, PaxosUtils.serialize(new DynamicGroupMessage(groupID, message)));
+            commLayer.sendTo(member, DynamicGroupMessage.encode(groupID, message));
+        }
+
+        public void sendTo(Member member, ByteBuffer message) {
+            sendTo(member, BufferPool.toByteArray(message));
         }
 
         public void close() {
@@ -193,20 +201,25 @@ public class DynamicGroup implements Receiver {
         }
 
         public void receive(byte[] bytes) {
-            Serializable message = (Serializable) PaxosUtils.deserialize(bytes);
-            if (message instanceof DynamicGroupMessage) {
-                DynamicGroupMessage dynamicGroupMessage = (DynamicGroupMessage) message;
-                if (dynamicGroupMessage.groupId == this.groupID) {
-                    listener.receive(dynamicGroupMessage.message);
+            if (DynamicGroupMessage.isGroupMessage(bytes)) {
+                if (DynamicGroupMessage.peekGroupId(bytes) == this.groupID) {
+                    listener.receive(DynamicGroupMessage.extractMessage(bytes));
                 }
-            } else if (message instanceof Tick) {
-                listener.receive(bytes);
-            } else if (message instanceof JoinRequest) {
+                return;
+            }
+
+            Serializable message = (Serializable) PaxosUtils.deserialize(bytes);
+            if (message instanceof JoinRequest) {
                 JoinRequest joinRequest = (JoinRequest) message;
                 addMember(joinRequest.joiner);
             } else {
                 throw new RuntimeException("Unsupported message type: " + message.getClass().getName());
             }
         }
+
+        public void tick(long time) {
+            // the messenger starts ticking before the group is created
+            if (listener != null) listener.tick(time);
+        }
     }
 }
@@ -1,15 +1,29 @@
 package paxos.dynamic;
 
-import paxos.PaxosUtils;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-import java.io.Serializable;
+/**
+ * Header identifying the group a message of a {@link DynamicGroup} belongs to: a marker byte followed by the 8 byte
+ * group id. The group can be checked by peeking at the header, without deserializing anything.
+ */
+public class DynamicGroupMessage {
+    private static final byte MARKER = 'G';
+    private static final int HEADER_SIZE = 9;
 
-public class DynamicGroupMessage implements Serializable {
-    public final long groupId;
-    public final byte[] message;
+    public static byte[] encode(long groupId, byte[] message) {
+        return ByteBuffer.allocate(HEADER_SIZE + message.length).put(MARKER).putLong(groupId).put(message).array();
+    }
+
+    public static boolean isGroupMessage(byte[] bytes) {
+        return bytes.length >= HEADER_SIZE && bytes[0] == MARKER;
+    }
+
+    public static long peekGroupId(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getLong(1);
+    }
 
-    public DynamicGroupMessage(long groupId, byte[] message) {
-        this.groupId = groupId;
-        this.message = message;
+    public static byte[] extractMessage(byte[] bytes) {
+        return Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length);
     }
 }
@@ -17,4 +17,10 @@ class MultiListener implements CommLayer.MessageListener {
             listener.receive(message);
         }
     }
+
+    public void tick(long time) {
+        for (CommLayer.MessageListener listener : listeners) {
+            listener.tick(time);
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package paxos.fragmentation;
 
 import paxos.*;
+import paxos.codec.Codec;
+import paxos.codec.JavaSerializationCodec;
 import paxos.communication.CommLayer;
 
 import java.io.IOException;
@@ -9,7 +11,8 @@ import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class implements totally ordered reliable broadcast. As opposed to {}@link BasicGroup} this class
- * supports messages that are larger than a UDP packet.
+ * supports messages that are larger than a UDP packet. Messages are encoded with the {@link Codec} of the group before
+ * being fragmented, Java serialization by default.
  */
 public class FragmentingGroup {
 
@@ -17,22 +20,29 @@ public class FragmentingGroup {
 
     private final BasicGroup group;
     private final int myPositionInGroup;
+    private final Codec codec;
     private AtomicLong msgIdGen = new AtomicLong(0);
 
     public FragmentingGroup(GroupMembership membership, CommLayer layer, Receiver receiver) {
-        this.group = new BasicGroup(membership, new FragmentingMessenger(layer), new JoinerReceiver(receiver));
+        this(membership, layer, receiver, new JavaSerializationCodec());
+    }
+
+    public FragmentingGroup(GroupMembership membership, CommLayer layer, Receiver receiver, Codec codec) {
+        this.group = new BasicGroup(membership, new FragmentingMessenger(layer), new JoinerReceiver(receiver, codec));
         this.myPositionInGroup = membership.getPositionInGroup();
+        this.codec = codec;
     }
 
     // for testing
     FragmentingGroup(BasicGroup group, int position) {
         this.group = group;
         this.myPositionInGroup = position;
+        this.codec = new JavaSerializationCodec();
     }
 
     public void broadcast(Serializable message) throws IOException {
         long messageId = createMsgId(message);
-        byte[] bytes = PaxosUtils.serialize(message);
+        byte[] bytes = codec.encode(message);
         MessageFragment[] fragments = FragmentationUtils.performFragmentation(bytes, messageId, FRAGMENT_SIZE);
         for (MessageFragment fragment : fragments) {
             // TODO send the fragments in parallel
@@ -50,10 +60,16 @@ public class FragmentingGroup {
 
     static class JoinerReceiver implements Receiver {
         private final Receiver receiver;
+        private final Codec codec;
         private final MessageReconstructor messageReconstructor = new MessageReconstructor();
 
         public JoinerReceiver(Receiver receiver) {
+            this(receiver, new JavaSerializationCodec());
+        }
+
+        public JoinerReceiver(Receiver receiver, Codec codec) {
             this.receiver = receiver;
+            this.codec = codec;
         }
 
         public void receive(Serializable message) {
@@ -67,7 +83,7 @@ public class FragmentingGroup {
         private void collectFragment(MessageFragment fragment) {
             byte[] completeMsg = messageReconstructor.collectFragment(fragment);
             if (completeMsg != null && receiver != null)
-                receiver.receive((Serializable) PaxosUtils.deserialize(completeMsg));
+                receiver.receive(codec.decode(completeMsg));
         }
     }
 }
@@ -1,13 +1,14 @@
 package paxos.fragmentation;
 
+import paxos.communication.BufferPool;
 import paxos.communication.CommLayer;
-import paxos.communication.Tick;
 import paxos.communication.UDPMessenger;
 import paxos.communication.Member;
 import paxos.PaxosUtils;
 
 import java.io.Serializable;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.List;
@@ -56,6 +57,10 @@ public class FragmentingMessenger implements CommLayer, UDPMessenger.MessageList
         }
     }
 
+    public void sendTo(Member member, ByteBuffer message) {
+        sendTo(member, BufferPool.toByteArray(message));
+    }
+
     private long createMsgId(Serializable message) {
         return (long) (Math.random() * Long.MAX_VALUE);
     }
@@ -69,14 +74,16 @@ public class FragmentingMessenger implements CommLayer, UDPMessenger.MessageList
 
         if (message instanceof MessageFragment) {
             collectFragment((MessageFragment) message);
-        } else if (message instanceof Tick) {
-            if (upstreamListener != null) upstreamListener.receive(bytes);
         } else {
             throw new RuntimeException("Received " + message.getClass());
         }
 
     }
 
+    public void tick(long time) {
+        if (upstreamListener != null) upstreamListener.tick(time);
+    }
+
     private void collectFragment(MessageFragment messageFragment) {
         byte[] completeMsg = messageReconstructor.collectFragment(messageFragment);
         if (completeMsg != null && upstreamListener != null) upstreamListener.receive(completeMsg);
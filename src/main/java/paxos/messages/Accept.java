@@ -5,7 +5,8 @@ import paxos.communication.Member;
 import java.io.Serializable;
 
 /**
- * Sent by an elected leader to ask members to accept a message for a given sequence number.
+ * Sent by an elected leader to ask members to accept a message for a given sequence number. It also tells the sequence
+ * number up to which the leader knows everything to be decided, so that members can deliver what they accepted.
  */
 public class Accept implements SpecialMessage {
     public long viewNo;
@@ -13,8 +14,14 @@ public class Accept implements SpecialMessage {
     public Serializable message;
     public long msgId;
     public final Member sender;
+    public long committed;
 
     public Accept(long viewNo, long seqNo, Serializable message, long msgId, Member sender) {
+        this(viewNo, seqNo, message, msgId, sender, -1);
+    }
+
+    public Accept(long viewNo, long seqNo, Serializable message, long msgId, Member sender, long committed) {
+        this.committed = committed;
         this.viewNo = viewNo;
         this.seqNo = seqNo;
         this.message = message;
@@ -0,0 +1,51 @@
+package paxos.messages;
+
+import paxos.communication.Member;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Sent by an elected leader to ask members to accept a message for each of a contiguous run of sequence numbers,
+ * starting from {@link #firstSeqNo}. Members accept the whole run and reply with a single {@link Accepted}. Like
+ * {@link Accept} it carries the leader's {@link #committed} sequence number.
+ */
+public class AcceptRange implements SpecialMessage {
+    public final long viewNo;
+    public final long firstSeqNo;
+    public final List<Serializable> messages;
+    public final long[] msgIds;
+    public final Member sender;
+    public final long committed;
+
+    public AcceptRange(long viewNo, long firstSeqNo, List<Serializable> messages, long[] msgIds, Member sender) {
+        this(viewNo, firstSeqNo, messages, msgIds, sender, -1);
+    }
+
+    public AcceptRange(long viewNo, long firstSeqNo, List<Serializable> messages, long[] msgIds, Member sender, long committed) {
+        if (messages.size() != msgIds.length) throw new IllegalArgumentException("One msgId is needed per message");
+        this.viewNo = viewNo;
+        this.firstSeqNo = firstSeqNo;
+        this.messages = messages;
+        this.msgIds = msgIds;
+        this.sender = sender;
+        this.committed = committed;
+    }
+
+    public int size() {
+        return msgIds.length;
+    }
+
+    public long getLastSeqNo() {
+        return firstSeqNo + size() - 1;
+    }
+
+    public MessageType getMessageType() {
+        return MessageType.ACCEPT_RANGE;
+    }
+
+    @Override
+    public String toString() {
+        return "ACCEPT_RANGE " + firstSeqNo + ".." + getLastSeqNo();
+    }
+}
@@ -5,7 +5,11 @@ import paxos.communication.Member;
 import java.util.Set;
 
 /**
- * Sent by a member to the leader to accept a proposed message for a given sequence number.
+ * Sent by a member to the leader to accept a proposed message for a given sequence number. It also acknowledges every
+ * slot up to {@link #acceptedUpTo}: those were all accepted in the same view, or are known to be decided. The member
+ * reports up to which sequence number it has delivered everything with {@link #committed}.
+ *
+ * A member answering the leader's heartbeat rather than an ACCEPT uses -1 as sequence number.
  */
 public class Accepted implements SpecialMessage, MessageWithSender {
     public long viewNo;
@@ -13,8 +17,20 @@ public class Accepted implements SpecialMessage, MessageWithSender {
     public long msgId;
     public Set<Long> missingSuccess;
     public Member sender;
+    public long acceptedUpTo;
+    public long committed;
 
     public Accepted(long viewNo, long seqNo, long msgId, Set<Long> missingSuccess, Member me) {
+        this(viewNo, seqNo, msgId, missingSuccess, me, -1);
+    }
+
+    public Accepted(long viewNo, long seqNo, long msgId, Set<Long> missingSuccess, Member me, long acceptedUpTo) {
+        this(viewNo, seqNo, msgId, missingSuccess, me, acceptedUpTo, -1);
+    }
+
+    public Accepted(long viewNo, long seqNo, long msgId, Set<Long> missingSuccess, Member me, long acceptedUpTo, long committed) {
+        this.acceptedUpTo = acceptedUpTo;
+        this.committed = committed;
         this.viewNo = viewNo;
         this.seqNo = seqNo;
         this.msgId = msgId;
@@ -28,7 +44,7 @@ public class Accepted implements SpecialMessage, MessageWithSender {
 
     @Override
     public String toString() {
-        return "ACCEPTED " + msgId + " missing("+missingSuccess+") from " + sender;
+        return "ACCEPTED " + msgId + " up to " + acceptedUpTo + " missing("+missingSuccess+") from " + sender;
     }
 
     public Member getSender() {
@@ -0,0 +1,60 @@
+package paxos.messages;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several broadcast requests decided in a single slot. The leader gathers the requests that arrive while a proposal
+ * is in flight and proposes them together; the members deliver them in order and unblock the clients of all of them.
+ * A batch is known in the protocol by the msgId of its first message.
+ */
+public class Batch implements Serializable {
+    private final List<Serializable> messages;
+    private final long[] msgIds;
+
+    public Batch(List<Serializable> messages, long[] msgIds) {
+        if (messages.size() != msgIds.length) throw new IllegalArgumentException("One msgId is needed per message");
+        this.messages = messages;
+        this.msgIds = msgIds;
+    }
+
+    public Batch(List<BroadcastRequest> requests) {
+        this.messages = new ArrayList<Serializable>(requests.size());
+        this.msgIds = new long[requests.size()];
+        for (int i = 0; i < msgIds.length; i++) {
+            messages.add(requests.get(i).message);
+            msgIds[i] = requests.get(i).msgId;
+        }
+    }
+
+    public int size() {
+        return msgIds.length;
+    }
+
+    public Serializable getMessage(int i) {
+        return messages.get(i);
+    }
+
+    public long getMsgId(int i) {
+        return msgIds[i];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Batch)) return false;
+        Batch other = (Batch) o;
+        return Arrays.equals(msgIds, other.msgIds) && messages.equals(other.messages);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(msgIds);
+    }
+
+    @Override
+    public String toString() {
+        return "Batch" + messages;
+    }
+}
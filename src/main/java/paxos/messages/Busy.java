@@ -0,0 +1,22 @@
+package paxos.messages;
+
+/**
+ * Sent by the leader to a member whose broadcast request it could not take, because as many requests as it is
+ * willing to hold are already waiting for a slot. The member should try again later.
+ */
+public class Busy implements SpecialMessage {
+    public final long msgId;
+
+    public Busy(long msgId) {
+        this.msgId = msgId;
+    }
+
+    public MessageType getMessageType() {
+        return MessageType.BUSY;
+    }
+
+    @Override
+    public String toString() {
+        return "BUSY " + msgId;
+    }
+}
@@ -2,16 +2,27 @@ package paxos.messages;
 
 import paxos.communication.Member;
 
-import java.io.Serializable;
-
 /**
- * Used to detect failed processes
+ * Used to detect failed processes. The leader also sends heartbeats of its view to announce the sequence number up to
+ * which everything has been decided, when there is no ACCEPT to carry it.
  */
-public class Heartbeat implements Serializable {
+public class Heartbeat implements SpecialMessage {
     public Member sender;
+    public long viewNo;
+    public long committed;
 
     public Heartbeat(Member sender) {
+        this(sender, 0, -1);
+    }
+
+    public Heartbeat(Member sender, long viewNo, long committed) {
         this.sender = sender;
+        this.viewNo = viewNo;
+        this.committed = committed;
+    }
+
+    public MessageType getMessageType() {
+        return MessageType.HEARTBEAT;
     }
 
     @Override
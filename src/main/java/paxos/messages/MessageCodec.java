@@ -0,0 +1,480 @@
+package paxos.messages;
+
+import paxos.Acceptance;
+import paxos.GroupMembership;
+import paxos.PaxosUtils;
+import paxos.communication.Member;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Binary wire format of the protocol messages. Every message starts with a fixed header: one byte holding the
+ * ordinal of its {@link SpecialMessage.MessageType}, then the view number and the sequence number as 8 byte longs
+ * (zero when the message has none). The header can be peeked at to route or drop a message without decoding it.
+ * The rest of the fields follow, with longs written as unsigned varints and user payloads as a tag byte followed by
+ * a length-prefixed byte array. Payloads that were broadcast as <code>byte[]</code> are copied as they are and decode
+ * back to a <code>byte[]</code>, so they are never run through Java serialization on their way through the group.
+ *
+ * When encoding with the {@link GroupMembership} of the group, members are written as the epoch of the membership and
+ * their position in it, which takes a couple of bytes; the receiver needs the same membership to decode them. Without
+ * a membership, or for members outside it, the IP address and port are written.
+ *
+ * Anything that is not a protocol message is written with Java serialization. Such messages are recognized by the
+ * first byte of the serialization stream header, which never clashes with a message type.
+ */
+public class MessageCodec {
+    private static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+    private static final int HEADER_SIZE = 17;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final byte INDEXED_MEMBER = 0;
+    private static final byte NULL_PAYLOAD = 0;
+    private static final byte SERIALIZED_PAYLOAD = 1;
+    private static final byte BYTES_PAYLOAD = 2;
+    private static final byte NO_OP_PAYLOAD = 3;
+    private static final byte BATCH_PAYLOAD = 4;
+    private static final NoOp NO_OP = new NoOp();
+    private static final SpecialMessage.MessageType[] TYPES = SpecialMessage.MessageType.values();
+    private static final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    };
+
+    public static byte[] encode(Serializable message) {
+        return encode(message, null);
+    }
+
+    public static byte[] encode(Serializable message, GroupMembership membership) {
+        if (!isSupported(message)) return PaxosUtils.serialize(message);
+
+        while (true) {
+            ByteBuffer buffer = scratch.get();
+            buffer.clear();
+            try {
+                encode((SpecialMessage) message, buffer, membership);
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) {
+                scratch.set(ByteBuffer.allocate(buffer.capacity() * 2));
+            }
+        }
+    }
+
+    /**
+     * Writes the message at the position of the buffer.
+     *
+     * @throws BufferOverflowException if the message does not fit, in which case the buffer content is undefined
+     */
+    public static void encode(SpecialMessage message, ByteBuffer out) {
+        encode(message, out, null);
+    }
+
+    /**
+     * Writes the message at the position of the buffer, referring to members by their position in the membership.
+     *
+     * @throws BufferOverflowException if the message does not fit, in which case the buffer content is undefined
+     */
+    public static void encode(SpecialMessage message, ByteBuffer out, GroupMembership membership) {
+        switch (message.getMessageType()) {
+            case BROADCAST_REQ: {
+                BroadcastRequest req = (BroadcastRequest) message;
+                putHeader(out, SpecialMessage.MessageType.BROADCAST_REQ, 0, 0);
+                putLong(out, req.msgId);
+                putPayload(out, req.message);
+                break;
+            }
+            case ACCEPT: {
+                Accept accept = (Accept) message;
+                putHeader(out, SpecialMessage.MessageType.ACCEPT, accept.viewNo, accept.seqNo);
+                putLong(out, accept.msgId);
+                putLong(out, accept.committed + 1);
+                putMember(out, accept.sender, membership);
+                putPayload(out, accept.message);
+                break;
+            }
+            case ACCEPTED: {
+                Accepted accepted = (Accepted) message;
+                encodeAccepted(out, accepted.viewNo, accepted.seqNo, accepted.msgId, accepted.missingSuccess, accepted.sender, accepted.acceptedUpTo, accepted.committed, membership);
+                break;
+            }
+            case SUCCESS: {
+                Success success = (Success) message;
+                putHeader(out, SpecialMessage.MessageType.SUCCESS, 0, success.seqNo);
+                putLong(out, success.msgId);
+                putPayload(out, success.message);
+                break;
+            }
+            case SUCCESS_ACK: {
+                SuccessAck ack = (SuccessAck) message;
+                encodeSuccessAck(out, ack.getMsgId(), ack.getSender(), membership);
+                break;
+            }
+            case ABORT: {
+                Abort abort = (Abort) message;
+                encodeAbort(out, abort.viewNo, abort.seqNo);
+                break;
+            }
+            case NEW_VIEW: {
+                NewView newView = (NewView) message;
+                putHeader(out, SpecialMessage.MessageType.NEW_VIEW, newView.viewNumber, newView.committed);
+                putMember(out, newView.leader, membership);
+                break;
+            }
+            case VIEW_ACCEPTED: {
+                ViewAccepted viewAccepted = (ViewAccepted) message;
+                putHeader(out, SpecialMessage.MessageType.VIEW_ACCEPTED, viewAccepted.viewNumber, 0);
+                putMember(out, viewAccepted.sender, membership);
+                putLong(out, viewAccepted.chunk);
+                putLong(out, viewAccepted.chunks);
+                putAcceptances(out, viewAccepted.accepted);
+                break;
+            }
+            case HEARTBEAT: {
+                Heartbeat heartbeat = (Heartbeat) message;
+                putHeader(out, SpecialMessage.MessageType.HEARTBEAT, heartbeat.viewNo, heartbeat.committed);
+                putMember(out, heartbeat.sender, membership);
+                break;
+            }
+            case ACCEPT_RANGE: {
+                AcceptRange range = (AcceptRange) message;
+                putHeader(out, SpecialMessage.MessageType.ACCEPT_RANGE, range.viewNo, range.firstSeqNo);
+                putMember(out, range.sender, membership);
+                putLong(out, range.committed + 1);
+                putLong(out, range.size());
+                for (int i = 0; i < range.size(); i++) {
+                    putLong(out, range.msgIds[i]);
+                    putPayload(out, range.messages.get(i));
+                }
+                break;
+            }
+            case BUSY:
+                putHeader(out, SpecialMessage.MessageType.BUSY, 0, 0);
+                putLong(out, ((Busy) message).msgId);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported message type " + message.getMessageType());
+        }
+    }
+
+    // The following write the acceptor's replies straight from their fields so that sending them allocates nothing.
+
+    /**
+     * @param acceptedUpTo the slot up to which every slot is acknowledged, or -1 for none
+     * @param committed the slot up to which the sender has delivered everything, or -1 for none
+     */
+    public static void encodeAccepted(ByteBuffer out, long viewNo, long seqNo, long msgId, Set<Long> missingSuccess, Member sender, long acceptedUpTo, long committed, GroupMembership membership) {
+        putHeader(out, SpecialMessage.MessageType.ACCEPTED, viewNo, seqNo);
+        putLong(out, msgId);
+        putMember(out, sender, membership);
+        putLong(out, acceptedUpTo + 1);
+        putLong(out, committed + 1);
+        putSeqNoRanges(out, missingSuccess);
+    }
+
+    public static void encodeSuccessAck(ByteBuffer out, long msgId, Member sender, GroupMembership membership) {
+        putHeader(out, SpecialMessage.MessageType.SUCCESS_ACK, 0, 0);
+        putLong(out, msgId);
+        putMember(out, sender, membership);
+    }
+
+    public static void encodeAbort(ByteBuffer out, long viewNo, long seqNo) {
+        putHeader(out, SpecialMessage.MessageType.ABORT, viewNo, seqNo);
+    }
+
+    public static Serializable decode(byte[] bytes) {
+        return decode(bytes, null);
+    }
+
+    /**
+     * @param membership resolves the members referred to by their position, it must be the one they were encoded with
+     */
+    public static Serializable decode(byte[] bytes, GroupMembership membership) {
+        if (peekType(bytes) == null) return (Serializable) PaxosUtils.deserialize(bytes);
+
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        SpecialMessage.MessageType type = readType(in);
+        long viewNo = in.getLong();
+        long seqNo = in.getLong();
+        switch (type) {
+            case BROADCAST_REQ: {
+                long msgId = readLong(in);
+                return new BroadcastRequest(readPayload(in), msgId);
+            }
+            case ACCEPT: {
+                long msgId = readLong(in);
+                long committed = readLong(in) - 1;
+                Member sender = readMember(in, membership);
+                return new Accept(viewNo, seqNo, readPayload(in), msgId, sender, committed);
+            }
+            case ACCEPTED: {
+                long msgId = readLong(in);
+                Member sender = readMember(in, membership);
+                long acceptedUpTo = readLong(in) - 1;
+                long committed = readLong(in) - 1;
+                return new Accepted(viewNo, seqNo, msgId, readSeqNoRanges(in), sender, acceptedUpTo, committed);
+            }
+            case SUCCESS: {
+                long msgId = readLong(in);
+                return new Success(seqNo, readPayload(in), msgId);
+            }
+            case SUCCESS_ACK: {
+                long msgId = readLong(in);
+                return new SuccessAck(msgId, readMember(in, membership));
+            }
+            case ABORT:
+                return new Abort(viewNo, seqNo);
+            case NEW_VIEW:
+                return new NewView(readMember(in, membership), viewNo, seqNo);
+            case VIEW_ACCEPTED: {
+                Member sender = readMember(in, membership);
+                int chunk = (int) readLong(in), chunks = (int) readLong(in);
+                return new ViewAccepted(viewNo, readAcceptances(in), sender, chunk, chunks);
+            }
+            case HEARTBEAT:
+                return new Heartbeat(readMember(in, membership), viewNo, seqNo);
+            case ACCEPT_RANGE: {
+                Member sender = readMember(in, membership);
+                long committed = readLong(in) - 1;
+                int size = readLength(in);
+                List<Serializable> messages = new ArrayList<Serializable>(size);
+                long[] msgIds = new long[size];
+                for (int i = 0; i < size; i++) {
+                    msgIds[i] = readLong(in);
+                    messages.add(readPayload(in));
+                }
+                return new AcceptRange(viewNo, seqNo, messages, msgIds, sender, committed);
+            }
+            case BUSY:
+                return new Busy(readLong(in));
+            default:
+                throw new RuntimeException("Unsupported message type " + type);
+        }
+    }
+
+    /**
+     * @return the type in the header, or <code>null</code> if the bytes are not a protocol message
+     */
+    public static SpecialMessage.MessageType peekType(byte[] bytes) {
+        if (bytes.length < HEADER_SIZE || bytes[0] == JAVA_SERIALIZATION_MAGIC) return null;
+        int ordinal = bytes[0] & 0xFF;
+        return (ordinal < TYPES.length) ? TYPES[ordinal] : null;
+    }
+
+    /**
+     * @return the view number in the header, or 0 for messages that do not belong to a view
+     */
+    public static long peekViewNumber(byte[] bytes) {
+        return getLong(bytes, 1);
+    }
+
+    /**
+     * @return the sequence number in the header (the committed one for NEW_VIEW and HEARTBEAT), or 0 for messages that do not refer
+     * to a slot
+     */
+    public static long peekSeqNo(byte[] bytes) {
+        return getLong(bytes, 9);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) value = (value << 8) | (bytes[i] & 0xFF);
+        return value;
+    }
+
+    private static boolean isSupported(Serializable message) {
+        if (!(message instanceof SpecialMessage)) return false;
+        switch (((SpecialMessage) message).getMessageType()) {
+            case BROADCAST_REQ: case ACCEPT: case ACCEPTED: case SUCCESS: case SUCCESS_ACK:
+            case ABORT: case NEW_VIEW: case VIEW_ACCEPTED: case HEARTBEAT: case BUSY: case ACCEPT_RANGE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static SpecialMessage.MessageType readType(ByteBuffer in) {
+        int ordinal = in.get() & 0xFF;
+        if (ordinal >= TYPES.length) throw new RuntimeException("Unknown message type " + ordinal);
+        return TYPES[ordinal];
+    }
+
+    private static long readLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new RuntimeException("Malformed varint");
+    }
+
+    private static int readLength(ByteBuffer in) {
+        long length = readLong(in);
+        if (length > in.remaining()) throw new RuntimeException("Length " + length + " exceeds message size");
+        return (int) length;
+    }
+
+    private static Serializable readPayload(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL_PAYLOAD: return null;
+            case NO_OP_PAYLOAD: return NO_OP;
+            case BATCH_PAYLOAD: return readBatch(in);
+            case BYTES_PAYLOAD: return readBytes(in);
+            case SERIALIZED_PAYLOAD: return (Serializable) PaxosUtils.deserialize(readBytes(in));
+            default: throw new RuntimeException("Unknown payload tag " + tag);
+        }
+    }
+
+    private static Batch readBatch(ByteBuffer in) {
+        int size = readLength(in);
+        List<Serializable> messages = new ArrayList<Serializable>(size);
+        long[] msgIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            msgIds[i] = readLong(in);
+            messages.add(readPayload(in));
+        }
+        return new Batch(messages, msgIds);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static Member readMember(ByteBuffer in, GroupMembership membership) {
+        int addressLength = in.get() & 0xff;
+        if (addressLength == INDEXED_MEMBER) {
+            long epoch = readLong(in), index = readLong(in);
+            if (membership == null || membership.getEpoch() != epoch || index < 0 || index >= membership.groupSize())
+                throw new RuntimeException("Cannot resolve member " + index + " of membership epoch " + epoch);
+            return membership.getMembers().get((int) index);
+        }
+        if (addressLength != 4 && addressLength != 16) throw new RuntimeException("Invalid address length " + addressLength);
+        byte[] address = new byte[addressLength];
+        in.get(address);
+        int port = (int) readLong(in);
+        try {
+            return new Member(InetAddress.getByAddress(address), port);
+        } catch (UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static SeqNoRanges readSeqNoRanges(ByteBuffer in) {
+        int ranges = readLength(in);
+        SeqNoRanges seqNos = new SeqNoRanges();
+        long end = 0;
+        for (int i = 0; i < ranges; i++) {
+            long start = end + readLong(in);
+            end = start + readLong(in);
+            seqNos.addRange(start, end);
+        }
+        return seqNos;
+    }
+
+    private static Map<Long, Acceptance> readAcceptances(ByteBuffer in) {
+        int size = readLength(in);
+        Map<Long, Acceptance> acceptances = new HashMap<Long, Acceptance>(size * 2);
+        for (int i = 0; i < size; i++) {
+            long seqNo = readLong(in), viewNumber = readLong(in), msgId = readLong(in);
+            acceptances.put(seqNo, new Acceptance(viewNumber, readPayload(in), msgId));
+        }
+        return acceptances;
+    }
+
+    private static void putHeader(ByteBuffer out, SpecialMessage.MessageType type, long viewNo, long seqNo) {
+        out.put((byte) type.ordinal());
+        out.putLong(viewNo);
+        out.putLong(seqNo);
+    }
+
+    private static void putLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void putPayload(ByteBuffer out, Serializable payload) {
+        if (payload == null) {
+            out.put(NULL_PAYLOAD);
+        } else if (payload instanceof NoOp) {
+            out.put(NO_OP_PAYLOAD);
+        } else if (payload instanceof byte[]) {
+            out.put(BYTES_PAYLOAD);
+            putBytes(out, (byte[]) payload);
+        } else if (payload instanceof Batch) {
+            Batch batch = (Batch) payload;
+            out.put(BATCH_PAYLOAD);
+            putLong(out, batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                putLong(out, batch.getMsgId(i));
+                putPayload(out, batch.getMessage(i));
+            }
+        } else {
+            out.put(SERIALIZED_PAYLOAD);
+            putBytes(out, PaxosUtils.serialize(payload));
+        }
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        putLong(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static void putMember(ByteBuffer out, Member member, GroupMembership membership) {
+        int index = (membership == null) ? -1 : membership.indexOf(member);
+        if (index >= 0) {
+            out.put(INDEXED_MEMBER);
+            putLong(out, membership.getEpoch());
+            putLong(out, index);
+        } else {
+            member.putAddress(out);
+            putLong(out, member.getPort());
+        }
+    }
+
+    /**
+     * Writes the number of ranges followed by each range as its distance from the end of the previous one and its
+     * length.
+     */
+    private static void putSeqNoRanges(ByteBuffer out, Set<Long> seqNos) {
+        if (seqNos.isEmpty()) {
+            putLong(out, 0);
+            return;
+        }
+        SeqNoRanges ranges;
+        if (seqNos instanceof SeqNoRanges) {
+            ranges = (SeqNoRanges) seqNos;
+        } else {
+            ranges = new SeqNoRanges();
+            for (Long seqNo : new TreeSet<Long>(seqNos)) ranges.addRange(seqNo, seqNo + 1);
+        }
+        putLong(out, ranges.getRangeCount());
+        long end = 0;
+        for (int i = 0; i < ranges.getRangeCount(); i++) {
+            putLong(out, ranges.getStart(i) - end);
+            putLong(out, ranges.getEnd(i) - ranges.getStart(i));
+            end = ranges.getEnd(i);
+        }
+    }
+
+    private static void putAcceptances(ByteBuffer out, Map<Long, Acceptance> acceptances) {
+        putLong(out, acceptances.size());
+        for (Map.Entry<Long, Acceptance> entry : acceptances.entrySet()) {
+            Acceptance acceptance = entry.getValue();
+            putLong(out, entry.getKey());
+            putLong(out, acceptance.viewNumber);
+            putLong(out, acceptance.msgId);
+            putPayload(out, acceptance.message);
+        }
+    }
+}
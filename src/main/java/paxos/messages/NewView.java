@@ -3,15 +3,22 @@ package paxos.messages;
 import paxos.communication.Member;
 
 /**
- * Sent by a wannabe leader to start an election.
+ * Sent by a wannabe leader to start an election. It carries the highest sequence number up to which the wannabe leader
+ * knows every message to be decided, so that acceptors only report what they accepted after it.
  */
 public class NewView implements SpecialMessage {
     public final Member leader;
     public final long viewNumber;
+    public final long committed;
 
     public NewView(Member leader, long viewNumber) {
+        this(leader, viewNumber, -1);
+    }
+
+    public NewView(Member leader, long viewNumber, long committed) {
         this.leader = leader;
         this.viewNumber = viewNumber;
+        this.committed = committed;
     }
 
     @Override
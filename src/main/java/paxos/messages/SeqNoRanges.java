@@ -0,0 +1,99 @@
+package paxos.messages;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of sequence numbers stored as sorted, disjoint ranges, so that long runs of consecutive sequence numbers take
+ * the space of two longs. Ranges must be added in increasing order.
+ */
+public class SeqNoRanges extends AbstractSet<Long> implements Serializable {
+    private long[] from = new long[4]; // inclusive
+    private long[] to = new long[4]; // exclusive
+    private int ranges = 0;
+    private long size = 0;
+
+    /**
+     * Adds the sequence numbers from <code>start</code> (inclusive) to <code>end</code> (exclusive).
+     */
+    public void addRange(long start, long end) {
+        if (start >= end) return;
+        if (ranges > 0 && start < to[ranges - 1]) throw new IllegalArgumentException("Range " + start + " added out of order");
+        if (ranges > 0 && start == to[ranges - 1]) {
+            to[ranges - 1] = end;
+        } else {
+            if (ranges == from.length) {
+                from = Arrays.copyOf(from, ranges * 2);
+                to = Arrays.copyOf(to, ranges * 2);
+            }
+            from[ranges] = start;
+            to[ranges] = end;
+            ranges++;
+        }
+        size += end - start;
+    }
+
+    public int getRangeCount() {
+        return ranges;
+    }
+
+    public long getStart(int range) {
+        return from[range];
+    }
+
+    public long getEnd(int range) {
+        return to[range];
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Long)) return false;
+        long seqNo = (Long) o;
+        int i = Arrays.binarySearch(from, 0, ranges, seqNo);
+        if (i >= 0) return true;
+        int range = -i - 2; // the last range starting before seqNo
+        return range >= 0 && seqNo < to[range];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(from[i]);
+            if (to[i] > from[i] + 1) sb.append("-").append(to[i] - 1);
+        }
+        return sb.append("]").toString();
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int range = 0;
+            private long next = (ranges > 0) ? from[0] : 0;
+
+            public boolean hasNext() {
+                return range < ranges;
+            }
+
+            public Long next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                long seqNo = next++;
+                if (next == to[range] && ++range < ranges) next = from[range];
+                return seqNo;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
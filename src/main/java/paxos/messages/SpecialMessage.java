@@ -5,6 +5,10 @@ import java.io.Serializable;
 public interface SpecialMessage extends Serializable {
     MessageType getMessageType();
 
+    /**
+     * The ordinal of the type is used as the first byte of every message encoded by {@link MessageCodec},
+     * so new types must be appended at the end.
+     */
     enum MessageType {
         BROADCAST_REQ,
         BROADCAST,
@@ -15,6 +19,9 @@ public interface SpecialMessage extends Serializable {
         SUCCESS,
         ABORT,
         PREVIOUS_OUTCOME,
-        SUCCESS_ACK, VIEW_ACCEPTED
+        SUCCESS_ACK, VIEW_ACCEPTED,
+        HEARTBEAT,
+        BUSY,
+        ACCEPT_RANGE
     }
 }
@@ -6,17 +6,27 @@ import paxos.communication.Member;
 import java.util.Map;
 
 /**
- * Sent by an acceptor in response to the {@link NewView} message to acknowledge the leader election.
+ * Sent by an acceptor in response to the {@link NewView} message to acknowledge the leader election. The acceptances
+ * after the committed sequence number of the {@link NewView} are split in chunks of bounded size, each sent in its
+ * own message; the vote counts once all the chunks have arrived.
  */
 public class ViewAccepted implements SpecialMessage, MessageWithSender {
     public final long viewNumber;
     public final Map<Long, Acceptance> accepted;
     public final Member sender;
+    public final int chunk;
+    public final int chunks;
 
     public ViewAccepted(long viewNumber, Map<Long, Acceptance> accepted, Member sender) {
+        this(viewNumber, accepted, sender, 0, 1);
+    }
+
+    public ViewAccepted(long viewNumber, Map<Long, Acceptance> accepted, Member sender, int chunk, int chunks) {
         this.viewNumber = viewNumber;
         this.accepted = accepted;
         this.sender = sender;
+        this.chunk = chunk;
+        this.chunks = chunks;
     }
 
     public MessageType getMessageType() {
@@ -29,6 +39,6 @@ public class ViewAccepted implements SpecialMessage, MessageWithSender {
 
     @Override
     public String toString() {
-        return "VIEW_ACCEPTED " + viewNumber + " " + sender;
+        return "VIEW_ACCEPTED " + viewNumber + " " + sender + " (" + (chunk + 1) + "/" + chunks + ")";
     }
 }
@@ -1,17 +1,26 @@
 package paxos;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
 import paxos.messages.Accept;
+import paxos.messages.AcceptRange;
+import paxos.messages.Heartbeat;
+import paxos.messages.MessageCodec;
 import paxos.messages.NewView;
 import paxos.messages.Success;
+import paxos.messages.ViewAccepted;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static java.util.Arrays.asList;
 import static java.util.Arrays.binarySearch;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 import static paxos.TestUtils.*;
 import static paxos.messages.SpecialMessage.MessageType.*;
@@ -38,10 +47,10 @@ public class AcceptorLogicTest {
         verify(messenger).sendTo(eq(leader), specialMessage(BROADCAST_REQ));
 
         acceptor.dispatch(new Accept(viewNo, seqNo, message, msgId, leader));
-        verify(messenger).sendTo(eq(leader), specialMessage(ACCEPTED));
+        verify(messenger).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
 
-        acceptor.dispatch(new Success(seqNo, "hello", msgId));
-        verify(messenger).sendTo(eq(leader), specialMessage(SUCCESS_ACK));
+        acceptor.dispatch(new Heartbeat(leader, viewNo, seqNo));
+        verify(messenger, times(2)).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
         verify(receiver).receive("hello");
 
         verifyNoMoreInteractions((CommLayer) messenger);
@@ -64,17 +73,14 @@ public class AcceptorLogicTest {
         verify(messenger).sendTo(eq(leader), specialMessage(VIEW_ACCEPTED));
 
         acceptor.dispatch(new Accept(viewNo, 0, "hello", msgId1, leader));
-        verify(messenger).sendTo(eq(leader), specialMessage(ACCEPTED));
+        verify(messenger).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
 
-        acceptor.dispatch(new Success(0, "hello", msgId1));
-        verify(messenger).sendTo(eq(leader), specialMessage(SUCCESS_ACK));
+        acceptor.dispatch(new Accept(viewNo, 1, "good morning", msgId2, leader, 0));
+        verify(messenger, times(2)).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
         verify(receiver).receive("hello");
 
-        acceptor.dispatch(new Accept(viewNo, 1, "good morning", msgId2, leader));
-        verify(messenger, times(2)).sendTo(eq(leader), specialMessage(ACCEPTED));
-
-        acceptor.dispatch(new Success(1, "good morning", msgId2));
-        verify(messenger, times(2)).sendTo(eq(leader), specialMessage(SUCCESS_ACK));
+        acceptor.dispatch(new Heartbeat(leader, viewNo, 1));
+        verify(messenger, times(3)).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
         verify(receiver).receive("good morning");
 
         verifyNoMoreInteractions((CommLayer) messenger);
@@ -101,23 +107,48 @@ public class AcceptorLogicTest {
         verify(messenger).sendTo(eq(leader), specialMessage(VIEW_ACCEPTED));
 
         acceptor.dispatch(new Accept(view1, seqNo, message1, msgId1, leader));
-        verify(messenger).sendTo(eq(leader), specialMessage(ACCEPTED));
+        verify(messenger).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
 
         leader = members.get(2);
         acceptor.dispatch(new NewView(leader, view2));
         verify(messenger).sendTo(eq(leader), specialMessage(VIEW_ACCEPTED));
 
         acceptor.dispatch(new Accept(view2, seqNo, message2, msgId2, leader));
-        verify(messenger).sendTo(eq(leader), specialMessage(ACCEPTED));
+        verify(messenger).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
 
-        acceptor.dispatch(new Success(seqNo, message2, msgId2));
-        verify(messenger).sendTo(eq(leader), specialMessage(SUCCESS_ACK));
+        acceptor.dispatch(new Heartbeat(leader, view2, seqNo));
+        verify(messenger, times(2)).sendTo(eq(leader), specialMessageBuffer(ACCEPTED));
         verify(receiver).receive(message2);
 
         verifyNoMoreInteractions((CommLayer) messenger);
         verifyNoMoreInteractions(receiver);
     }
 
+    @Test
+    public void testAcceptingARangeWithASingleReply() throws Exception {
+        List<Member> members = asList(localMember(2440), localMember(2441));
+        GroupMembership membership = createMembership(members, 0);
+        CommLayer messenger = mock(CommLayer.class);
+        Member leader = members.get(1);
+        long viewNo = 1;
+
+        AcceptorLogic acceptor = new AcceptorLogic(membership, messenger, null);
+
+        acceptor.dispatch(new NewView(leader, viewNo));
+        verify(messenger).sendTo(eq(leader), specialMessage(VIEW_ACCEPTED));
+
+        acceptor.dispatch(new AcceptRange(viewNo, 0, asList((Serializable) "a", "b", "c"), new long[] {1, 2, 3}, leader));
+        verify(messenger).sendTo(eq(leader), acceptedMessageUpTo(2, 2));
+
+        acceptor.dispatch(new Accept(viewNo, 4, "e", 5, leader));
+        verify(messenger).sendTo(eq(leader), acceptedMessageUpTo(4, 2)); // 3 is missing
+
+        acceptor.dispatch(new Accept(viewNo, 3, "d", 4, leader));
+        verify(messenger).sendTo(eq(leader), acceptedMessageUpTo(3, 4));
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
     @Test
     public void testCatchingUpMissingSuccessMessages() throws Exception {
         List<Member> members = asList(localMember(2440), localMember(2441));
@@ -133,15 +164,14 @@ public class AcceptorLogicTest {
         acceptor.dispatch(new NewView(leader, viewNo));
         verify(messenger).sendTo(eq(leader), specialMessage(VIEW_ACCEPTED));
 
-        acceptor.dispatch(new Accept(viewNo, 0, "hello", msgId1, leader));
-        verify(messenger).sendTo(eq(leader), specialMessage(ACCEPTED));
-
+        // the accept of "hello" was lost
         acceptor.dispatch(new Accept(viewNo, 1, "good morning", msgId2, leader));
+        verify(messenger).sendTo(eq(leader), acceptedMessageWithMissingList());
+
+        acceptor.dispatch(new Heartbeat(leader, viewNo, 1));
         verify(messenger).sendTo(eq(leader), acceptedMessageWithMissingList(0l));
 
         acceptor.dispatch(new Success(0l, "hello", msgId1));
-        acceptor.dispatch(new Success(1l, "good morning", msgId2));
-        verify(messenger, times(2)).sendTo(eq(leader), specialMessage(SUCCESS_ACK));
         verify(receiver).receive("hello");
         verify(receiver).receive("good morning");
 
@@ -149,6 +179,103 @@ public class AcceptorLogicTest {
         verifyNoMoreInteractions(receiver);
     }
 
+    @Test
+    public void testNotDeliveringWhatWasAcceptedInAnotherView() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        GroupMembership membership = createMembership(members, 0);
+        CommLayer messenger = mock(CommLayer.class);
+        Receiver receiver = mock(Receiver.class);
+        Member oldLeader = members.get(1), newLeader = members.get(2);
+
+        AcceptorLogic acceptor = new AcceptorLogic(membership, messenger, receiver);
+        acceptor.dispatch(new NewView(oldLeader, 1));
+        acceptor.dispatch(new Accept(1, 0, "hello", 1, oldLeader));
+        acceptor.dispatch(new NewView(newLeader, 2));
+
+        // the new leader got "hi" decided for the same seqNo without us
+        acceptor.dispatch(new Heartbeat(newLeader, 2, 0));
+        verify(messenger).sendTo(eq(newLeader), acceptedMessageWithMissingList(0l));
+        verifyZeroInteractions(receiver);
+
+        acceptor.dispatch(new Success(0, "hi", 2));
+        verify(receiver).receive("hi");
+        verifyNoMoreInteractions(receiver);
+    }
+
+    @Test(timeout = 5000)
+    public void testDeliveringToAMemberFarBehindAGap() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        GroupMembership membership = createMembership(members, 0);
+        CommLayer messenger = mock(CommLayer.class);
+        final int[] delivered = new int[1];
+        Receiver receiver = new Receiver() {
+            public void receive(Serializable message) {
+                delivered[0]++;
+            }
+        };
+        Member oldLeader = members.get(1), newLeader = members.get(2);
+        int messages = 20000;
+
+        AcceptorLogic acceptor = new AcceptorLogic(membership, messenger, receiver);
+        acceptor.dispatch(new NewView(oldLeader, 1));
+        acceptor.dispatch(new Accept(1, 0, "hello", 0, oldLeader));
+        acceptor.dispatch(new NewView(newLeader, 2));
+        List<Serializable> range = new ArrayList<Serializable>();
+        long[] msgIds = new long[messages];
+        for (int i = 0; i < messages; i++) {
+            range.add("m" + i);
+            msgIds[i] = i + 1;
+        }
+        acceptor.dispatch(new AcceptRange(2, 1, range, msgIds, newLeader, messages));
+
+        // every message of the leader walks past the slot accepted in the old view
+        for (int i = 0; i < 5000; i++) acceptor.dispatch(new Heartbeat(newLeader, 2, messages));
+        assertEquals(0, delivered[0]);
+
+        acceptor.dispatch(new Success(0, "hi", messages + 1));
+        assertEquals(messages + 1, delivered[0]);
+    }
+
+    @Test
+    public void testIgnoringHeartbeatsThatAnnounceNothing() throws Exception {
+        List<Member> members = asList(localMember(2440), localMember(2441));
+        GroupMembership membership = createMembership(members, 0);
+        CommLayer messenger = mock(CommLayer.class);
+
+        AcceptorLogic acceptor = new AcceptorLogic(membership, messenger, null);
+        acceptor.dispatch(new Heartbeat(members.get(1)));
+
+        verifyZeroInteractions(messenger);
+    }
+
+    @Test
+    public void testReportingOnlyWhatWasAcceptedAfterTheCommittedMessages() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        GroupMembership membership = createMembership(members, 0);
+        CommLayer messenger = mock(CommLayer.class);
+        Member oldLeader = members.get(1), newLeader = members.get(2);
+        int messages = AcceptorLogic.VIEW_ACCEPTED_CHUNK + 10;
+
+        AcceptorLogic acceptor = new AcceptorLogic(membership, messenger, null);
+        acceptor.dispatch(new NewView(oldLeader, 1));
+        for (long seqNo = 0; seqNo < messages; seqNo++) acceptor.dispatch(new Accept(1, seqNo, "m" + seqNo, seqNo, oldLeader));
+        for (long seqNo = 0; seqNo < 5; seqNo++) acceptor.dispatch(new Success(seqNo, "m" + seqNo, seqNo));
+        assertEquals(4, acceptor.getCommitted());
+
+        acceptor.dispatch(new NewView(newLeader, 2, 4));
+
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(messenger, times(2)).sendTo(eq(newLeader), captor.capture());
+        Set<Long> reported = new HashSet<Long>();
+        for (byte[] bytes : captor.getAllValues()) {
+            ViewAccepted viewAccepted = (ViewAccepted) MessageCodec.decode(bytes, membership);
+            assertEquals(2, viewAccepted.chunks);
+            reported.addAll(viewAccepted.accepted.keySet());
+        }
+        assertEquals(messages - 5, reported.size());
+        for (long seqNo = 5; seqNo < messages; seqNo++) assertEquals(true, reported.contains(seqNo));
+    }
+
     private void startBroadcast(final AcceptorLogic acceptor, final Serializable message) throws InterruptedException {
         new Thread() {
             @Override
@@ -4,6 +4,7 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
 import org.junit.Test;
+import paxos.codec.JavaSerializationCodec;
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
 import paxos.messages.*;
@@ -13,6 +14,7 @@ import java.util.List;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.mockito.Mockito.*;
 import static paxos.TestUtils.message;
+import static paxos.TestUtils.messageBuffer;
 
 public class BasicGroupTest {
     CommLayer commLayer = mock(CommLayer.class);
@@ -46,7 +48,7 @@ public class BasicGroupTest {
         BasicGroup group = createGroup(membership);
         verifyNoMoreInteractions(commLayer);
 
-        group.receive(TestUtils.tick(5000)); // this should be enough to trigger the failure detection
+        group.tick(5000); // this should be enough to trigger the failure detection
         verify(commLayer).sendTo(eq(members), message(instanceOf(NewView.class)));
     }
 
@@ -58,7 +60,7 @@ public class BasicGroupTest {
         BasicGroup group = createGroup(membership);
         verifyNoMoreInteractions(commLayer);
 
-        group.receive(PaxosUtils.serialize(new NewView(members.get(1), 2)));
+        group.receive(MessageCodec.encode(new NewView(members.get(1), 2)));
         verify(commLayer).sendTo(eq(members.get(1)), message(instanceOf(ViewAccepted.class)));
     }
 
@@ -70,10 +72,10 @@ public class BasicGroupTest {
         BasicGroup group = createGroup(membership);
         verifyNoMoreInteractions(commLayer);
 
-        group.receive(PaxosUtils.serialize(new NewView(members.get(1), 2)));
+        group.receive(MessageCodec.encode(new NewView(members.get(1), 2)));
         verify(commLayer).sendTo(eq(members.get(1)), message(instanceOf(ViewAccepted.class)));
 
-        group.receive(PaxosUtils.serialize(new NewView(members.get(2), 1)));
+        group.receive(MessageCodec.encode(new NewView(members.get(2), 1)));
         verifyNoMoreInteractions(commLayer);
     }
 
@@ -85,11 +87,11 @@ public class BasicGroupTest {
         BasicGroup group = createGroup(membership);
         verifyNoMoreInteractions(commLayer);
 
-        group.receive(PaxosUtils.serialize(new NewView(members.get(2), 1)));
+        group.receive(MessageCodec.encode(new NewView(members.get(2), 1)));
         verify(commLayer).sendTo(eq(members.get(2)), message(instanceOf(ViewAccepted.class)));
 
-        group.receive(PaxosUtils.serialize(new Accept(1, 1, "Hello", 1, members.get(2))));
-        verify(commLayer).sendTo(eq(members.get(2)), message(instanceOf(Accepted.class)));
+        group.receive(MessageCodec.encode(new Accept(1, 1, "Hello", 1, members.get(2))));
+        verify(commLayer).sendTo(eq(members.get(2)), messageBuffer(instanceOf(Accepted.class)));
     }
 
     @Test
@@ -100,14 +102,14 @@ public class BasicGroupTest {
         BasicGroup group = createGroup(membership);
         verifyNoMoreInteractions(commLayer);
 
-        group.receive(PaxosUtils.serialize(new NewView(members.get(2), 1)));
+        group.receive(MessageCodec.encode(new NewView(members.get(2), 1)));
         verify(commLayer).sendTo(eq(members.get(2)), message(instanceOf(ViewAccepted.class)));
 
-        group.receive(PaxosUtils.serialize(new NewView(members.get(1), 2)));
+        group.receive(MessageCodec.encode(new NewView(members.get(1), 2)));
         verify(commLayer).sendTo(eq(members.get(1)), message(instanceOf(ViewAccepted.class)));
 
-        group.receive(PaxosUtils.serialize(new Accept(2, 1, "Hello", 1, members.get(1))));
-        verify(commLayer).sendTo(eq(members.get(1)), message(instanceOf(Accepted.class)));
+        group.receive(MessageCodec.encode(new Accept(2, 1, "Hello", 1, members.get(1))));
+        verify(commLayer).sendTo(eq(members.get(1)), messageBuffer(instanceOf(Accepted.class)));
     }
 
     @Test
@@ -119,15 +121,15 @@ public class BasicGroupTest {
         verifyNoMoreInteractions(commLayer);
 
         Member defaultLeader = members.get(2);
-        group.receive(PaxosUtils.serialize(new NewView(defaultLeader, 1)));
+        group.receive(MessageCodec.encode(new NewView(defaultLeader, 1)));
         verify(commLayer).sendTo(eq(defaultLeader), message(instanceOf(ViewAccepted.class)));
 
         Member newLeader = members.get(1);
-        group.receive(PaxosUtils.serialize(new NewView(newLeader, 2)));
+        group.receive(MessageCodec.encode(new NewView(newLeader, 2)));
         verify(commLayer).sendTo(eq(newLeader), message(instanceOf(ViewAccepted.class)));
 
-        group.receive(PaxosUtils.serialize(new Accept(1, 1, "Hello", 1, defaultLeader)));
-        verify(commLayer).sendTo(eq(defaultLeader), message(instanceOf(Abort.class)));
+        group.receive(MessageCodec.encode(new Accept(1, 1, "Hello", 1, defaultLeader)));
+        verify(commLayer).sendTo(eq(defaultLeader), messageBuffer(instanceOf(Abort.class)));
     }
 
     @Test
@@ -139,14 +141,14 @@ public class BasicGroupTest {
         verifyNoMoreInteractions(commLayer);
 
         Member defaultLeader = members.get(2);
-        group.receive(PaxosUtils.serialize(new NewView(defaultLeader, 1)));
+        group.receive(MessageCodec.encode(new NewView(defaultLeader, 1)));
         verify(commLayer).sendTo(eq(defaultLeader), message(instanceOf(ViewAccepted.class)));
 
-        group.receive(PaxosUtils.serialize(new Accept(1, 1, "Hello", 1, defaultLeader)));
-        verify(commLayer).sendTo(eq(defaultLeader), message(instanceOf(Accepted.class)));
+        group.receive(MessageCodec.encode(new Accept(1, 1, "Hello", 1, defaultLeader)));
+        verify(commLayer).sendTo(eq(defaultLeader), messageBuffer(instanceOf(Accepted.class)));
 
         Member newLeader = members.get(1);
-        group.receive(PaxosUtils.serialize(new NewView(newLeader, 2)));
+        group.receive(MessageCodec.encode(new NewView(newLeader, 2)));
         verify(commLayer).sendTo(eq(newLeader), message(viewAccepted(1)));
     }
 
@@ -158,7 +160,7 @@ public class BasicGroupTest {
         BasicGroup leader = createGroup(membership);
         verify(commLayer).sendTo(eq(members), message(instanceOf(NewView.class)));
 
-        leader.receive(PaxosUtils.serialize(new BroadcastRequest("Hello", 42)));
+        leader.receive(MessageCodec.encode(new BroadcastRequest("Hello", 42)));
         verifyNoMoreInteractions(commLayer);
     }
 
@@ -175,10 +177,21 @@ public class BasicGroupTest {
         };
     }
 
+    @Test
+    public void testDecodingMessagesWithTheCodecOfTheGroup() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        GroupMembership membership = TestUtils.createMembership(members, 0);
+
+        BasicGroup group = new BasicGroup(membership, commLayer, receiver, new JavaSerializationCodec());
+        group.receive(MessageCodec.encode(new Success(0, PaxosUtils.serialize("hello"), 1)));
+
+        verify(receiver).receive("hello");
+    }
+
     private BasicGroup createGroup(GroupMembership membership) {
         BasicGroup group = new BasicGroup(membership, commLayer, receiver);
         verify(commLayer).setListener((CommLayer.MessageListener) any());
-        group.receive(TestUtils.tick(0)); // initializes the time
+        group.tick(0); // initializes the time
         return group;
     }
 }
@@ -0,0 +1,40 @@
+package paxos;
+
+import org.junit.Test;
+import paxos.communication.BufferPool;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+    @Test
+    public void testReleasedBuffersAreReused() throws Exception {
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put((byte) 42);
+        BufferPool.release(buffer);
+
+        ByteBuffer reused = BufferPool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(BufferPool.BUFFER_SIZE, reused.remaining());
+    }
+
+    @Test
+    public void testForeignBuffersAreNotPooled() throws Exception {
+        ByteBuffer foreign = ByteBuffer.allocate(10);
+        BufferPool.release(foreign);
+
+        assertNotSame(foreign, BufferPool.acquire());
+    }
+
+    @Test
+    public void testConvertingToByteArray() throws Exception {
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put(new byte[] {1, 2, 3});
+        buffer.flip();
+
+        assertArrayEquals(new byte[] {1, 2, 3}, BufferPool.toByteArray(buffer));
+        assertSame(buffer, BufferPool.acquire());
+    }
+}
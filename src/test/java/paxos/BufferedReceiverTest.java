@@ -1,10 +1,15 @@
 package paxos;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import paxos.messages.Batch;
 import paxos.messages.NoOp;
 
+import java.io.Serializable;
+import java.util.Arrays;
+
 import static org.junit.Assert.*;
 
 public class BufferedReceiverTest {
@@ -34,6 +39,21 @@ public class BufferedReceiverTest {
     }
 
 
+    @Test
+    public void testDeliveringTheMessagesOfABatchInOrder() throws Exception {
+        Receiver receiver = Mockito.mock(Receiver.class);
+        InOrder inOrder = Mockito.inOrder(receiver);
+
+        BufferedReceiver bufferedReceiver = new BufferedReceiver(receiver);
+        bufferedReceiver.receive(1l, "hi 3");
+        bufferedReceiver.receive(0l, new Batch(Arrays.<Serializable>asList("hi 1", new NoOp(), "hi 2"), new long[] {1, 0, 2}));
+
+        inOrder.verify(receiver).receive("hi 1");
+        inOrder.verify(receiver).receive("hi 2");
+        inOrder.verify(receiver).receive("hi 3");
+        Mockito.verifyNoMoreInteractions(receiver);
+    }
+
     @Test
     public void testFilteringOutNoOpMessage() throws Exception {
         Receiver receiver = Mockito.mock(Receiver.class);
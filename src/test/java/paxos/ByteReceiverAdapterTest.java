@@ -0,0 +1,28 @@
+package paxos;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+
+public class ByteReceiverAdapterTest {
+    @Test
+    public void testPassingOnBytes() throws Exception {
+        ByteReceiver receiver = Mockito.mock(ByteReceiver.class);
+        byte[] message = {1, 2, 3};
+
+        new ByteReceiverAdapter(receiver).receive(message);
+
+        Mockito.verify(receiver).receive(message);
+    }
+
+    @Test
+    public void testIgnoringOtherMessages() throws Exception {
+        ByteReceiver receiver = Mockito.mock(ByteReceiver.class);
+
+        new ByteReceiverAdapter(receiver).receive("hi");
+
+        Mockito.verify(receiver, never()).receive(any(byte[].class));
+    }
+}
@@ -1,9 +1,11 @@
 package paxos;
 
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
 import org.junit.Test;
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
 import paxos.messages.*;
 
 import java.io.Serializable;
@@ -13,6 +15,8 @@ import java.util.*;
 import static java.util.Collections.EMPTY_MAP;
 import static java.util.Collections.EMPTY_SET;
 import static java.util.Collections.sort;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 import static paxos.TestUtils.*;
 import static paxos.messages.SpecialMessage.MessageType.*;
@@ -48,7 +52,7 @@ public class LeaderLogicTest {
         leader.dispatch(new Accepted(viewNo, seqNo, msgId, EMPTY_SET, members.get(0)));
 
         leader.dispatch(new Accepted(viewNo, seqNo, msgId, EMPTY_SET, members.get(1)));
-        verify(messenger).sendTo(eq(members), specialMessage(SUCCESS));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
 
         verifyNoMoreInteractions((CommLayer) messenger);
     }
@@ -91,6 +95,28 @@ public class LeaderLogicTest {
         verifyNoMoreInteractions((CommLayer) messenger);
     }
 
+    @Test
+    public void testRepeatingOnlyWhatEachMemberHasNotAccepted() throws Exception {
+        createGroup(3);
+
+        leader.dispatch(new BroadcastRequest("a", 1));
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "a"));
+        leader.dispatch(new Accepted(viewNo, 0, 1, EMPTY_SET, members.get(0)));
+        leader.dispatch(new Accepted(viewNo, 0, 1, EMPTY_SET, members.get(1)));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
+
+        leader.dispatch(new BroadcastRequest("b", 2));
+        verify(messenger).sendTo(eq(members), acceptMessage(1, "b"));
+        leader.dispatch(new Accepted(viewNo, 1, 2, EMPTY_SET, members.get(0)));
+
+        advanceTimeTo(1500);
+        verify(messenger).sendTo(eq(members.get(1)), acceptMessage(1, "b"));
+        verify(messenger).sendTo(eq(members.get(2)), acceptMessage(1, "b")); // the decided slot is not proposed again
+        verify(messenger, times(2)).sendTo(eq(members), decidedUpTo(0)); // the last member has not delivered it
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
     @Test
     public void testConsecutiveMessages() throws Exception {
         createGroup(2);
@@ -103,14 +129,14 @@ public class LeaderLogicTest {
 
         leader.dispatch(new Accepted(viewNo, 0, msgId1, EMPTY_SET, members.get(0)));
         leader.dispatch(new Accepted(viewNo, 0, msgId1, EMPTY_SET, members.get(1)));
-        verify(messenger).sendTo(eq(members), specialMessage(SUCCESS));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
 
         leader.dispatch(new BroadcastRequest("good morning", msgId2));
         verify(messenger, times(2)).sendTo(eq(members), specialMessage(ACCEPT));
 
         leader.dispatch(new Accepted(viewNo, 1, msgId2, EMPTY_SET, members.get(0)));
         leader.dispatch(new Accepted(viewNo, 1, msgId2, EMPTY_SET, members.get(1)));
-        verify(messenger, times(2)).sendTo(eq(members), specialMessage(SUCCESS));
+        verify(messenger).sendTo(eq(members), decidedUpTo(1));
 
         verifyNoMoreInteractions((CommLayer) messenger);
     }
@@ -127,17 +153,14 @@ public class LeaderLogicTest {
         previousMessages.put(2l, new Acceptance(1, "a", msgId1));
         previousMessages.put(4l, new Acceptance(1, "b", msgId2));
 
-        LeaderLogic newLeader = new LeaderLogic(membership, messenger2, 0);
+        LeaderLogic newLeader = new LeaderLogic(membership, messenger2, 0, committedUpTo(0));
 
         newLeader.memberFailed(members.get(2), new HashSet<Member>(Arrays.asList(members.get(0), members.get(1))));
         verify(messenger2).sendTo(eq(members), specialMessage(NEW_VIEW));
 
         newLeader.dispatch(new ViewAccepted(newViewNo, EMPTY_MAP, members.get(0)));
         newLeader.dispatch(new ViewAccepted(newViewNo, previousMessages, members.get(1)));
-        verify(messenger2).sendTo(eq(members), acceptMessage(1, NO_OP));
-        verify(messenger2).sendTo(eq(members), acceptMessage(2, "a"));
-        verify(messenger2).sendTo(eq(members), acceptMessage(3, NO_OP));
-        verify(messenger2).sendTo(eq(members), acceptMessage(4, "b"));
+        verify(messenger2).sendTo(eq(members), acceptRange(1, NO_OP, "a", NO_OP, "b"));
 
         newLeader.dispatch(new Accepted(newViewNo, 1, 0, EMPTY_SET, members.get(0)));
         newLeader.dispatch(new Accepted(newViewNo, 2, msgId1, EMPTY_SET, members.get(0)));
@@ -148,7 +171,36 @@ public class LeaderLogicTest {
         newLeader.dispatch(new Accepted(newViewNo, 2, msgId1, EMPTY_SET, members.get(1)));
         newLeader.dispatch(new Accepted(newViewNo, 3, 0, EMPTY_SET, members.get(1)));
         newLeader.dispatch(new Accepted(newViewNo, 4, msgId2, EMPTY_SET, members.get(1)));
-        verify(messenger2, times(4)).sendTo(eq(members), specialMessage(SUCCESS));
+        for (long seqNo = 1; seqNo <= 4; seqNo++) verify(messenger2).sendTo(eq(members), decidedUpTo(seqNo));
+
+        verifyNoMoreInteractions((CommLayer) messenger2);
+    }
+
+    @Test
+    public void testCountingCumulativeAcceptances() throws Exception {
+        members = TestUtils.createMembersOnLocalhost(3);
+        membership = createMembership(members, 1);
+        CommLayer messenger2 = mock(CommLayer.class);
+        long newViewNo = 4;
+
+        Map<Long,Acceptance> previousMessages = new HashMap<Long, Acceptance>();
+        previousMessages.put(2l, new Acceptance(1, "a", 1));
+        previousMessages.put(4l, new Acceptance(1, "b", 20));
+
+        LeaderLogic newLeader = new LeaderLogic(membership, messenger2, 0, committedUpTo(0));
+
+        newLeader.memberFailed(members.get(2), asSet(members.get(0), members.get(1)));
+        verify(messenger2).sendTo(eq(members), specialMessage(NEW_VIEW));
+        newLeader.dispatch(new ViewAccepted(newViewNo, EMPTY_MAP, members.get(0)));
+        newLeader.dispatch(new ViewAccepted(newViewNo, previousMessages, members.get(1)));
+        verify(messenger2).sendTo(eq(members), acceptRange(1, NO_OP, "a", NO_OP, "b"));
+
+        newLeader.dispatch(new Accepted(newViewNo, 4, 20, EMPTY_SET, members.get(0), 4));
+        newLeader.dispatch(new Accepted(newViewNo, 4, 20, EMPTY_SET, members.get(1), 2)); // 3 is still missing
+        verify(messenger2).sendTo(eq(members), decidedUpTo(2));
+
+        newLeader.dispatch(new Accepted(newViewNo, 3, 0, EMPTY_SET, members.get(1), 4));
+        verify(messenger2).sendTo(eq(members), decidedUpTo(4));
 
         verifyNoMoreInteractions((CommLayer) messenger2);
     }
@@ -165,17 +217,14 @@ public class LeaderLogicTest {
         previousMessages.put(2l, new Acceptance(1, "a", msgId1));
         previousMessages.put(4l, new Acceptance(1, "b", msgId2));
 
-        LeaderLogic newLeader = new LeaderLogic(membership, messenger2, 0);
+        LeaderLogic newLeader = new LeaderLogic(membership, messenger2, 0, committedUpTo(0));
 
         newLeader.memberFailed(members.get(2), new HashSet<Member>(Arrays.asList(members.get(0), members.get(1))));
         verify(messenger2).sendTo(eq(members), specialMessage(NEW_VIEW));
 
         newLeader.dispatch(new ViewAccepted(newViewNo, EMPTY_MAP, members.get(0)));
         newLeader.dispatch(new ViewAccepted(newViewNo, previousMessages, members.get(1)));
-        verify(messenger2).sendTo(eq(members), acceptMessage(1, NO_OP));
-        verify(messenger2).sendTo(eq(members), acceptMessage(2, "a"));
-        verify(messenger2).sendTo(eq(members), acceptMessage(3, NO_OP));
-        verify(messenger2).sendTo(eq(members), acceptMessage(4, "b"));
+        verify(messenger2).sendTo(eq(members), acceptRange(1, NO_OP, "a", NO_OP, "b"));
 
         newLeader.dispatch(new BroadcastRequest("a", msgId1));
 
@@ -205,6 +254,19 @@ public class LeaderLogicTest {
         verifyNoMoreInteractions((CommLayer) messenger2);
     }
 
+    @Test
+    public void testNotRepeatingAcceptsOnceTakenOver() throws Exception {
+        createGroup(2);
+
+        leader.dispatch(new BroadcastRequest("hello", 1));
+        verify(messenger).sendTo(eq(members), specialMessage(ACCEPT));
+
+        leader.dispatch(new NewView(members.get(0), viewNo + 1));
+        advanceTimeTo(1500);
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
     @Test
     public void testTakingOverWithMorePredecessors() throws Exception {
         members = TestUtils.createMembersOnLocalhost(4);
@@ -220,7 +282,7 @@ public class LeaderLogicTest {
         previousMessagesFromB.put(2l, new Acceptance(2, "b", msgId2));
 
         Member oldLeader = members.get(3);
-        LeaderLogic newLeader = new LeaderLogic(membership, messenger, 0);
+        LeaderLogic newLeader = new LeaderLogic(membership, messenger, 0, committedUpTo(0));
         newLeader.dispatch(new NewView(oldLeader, 2l));
 
         HashSet<Member> aliveMembers = new HashSet<Member>(members);
@@ -231,8 +293,7 @@ public class LeaderLogicTest {
         newLeader.dispatch(new ViewAccepted(newViewNo, previousMessagesFromA, members.get(0)));
         newLeader.dispatch(new ViewAccepted(newViewNo, previousMessagesFromB, members.get(1)));
         newLeader.dispatch(new ViewAccepted(newViewNo, EMPTY_MAP, members.get(2)));
-        verify(messenger).sendTo(eq(members), acceptMessage(2, "b"));
-        verify(messenger).sendTo(eq(members), acceptMessage(1, NO_OP));
+        verify(messenger).sendTo(eq(members), acceptRange(1, NO_OP, "b"));
 
         verifyNoMoreInteractions((CommLayer) messenger);
     }
@@ -246,7 +307,7 @@ public class LeaderLogicTest {
         leader.dispatch(new BroadcastRequest("hello", msgId1));
         verify(messenger).sendTo(eq(members), specialMessage(ACCEPT));
         mockAcceptedFromAllMembers(0, msgId1);
-        verify(messenger).sendTo(eq(members), specialMessage(SUCCESS));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
 
         // broadcast message 2
         leader.dispatch(new BroadcastRequest("good morning", msgId2));
@@ -257,20 +318,20 @@ public class LeaderLogicTest {
         verify(messenger).sendTo(eq(members.get(0)), specialMessage(SUCCESS));
 
         // now both broadcasts have completed
-        verify(messenger, times(2)).sendTo(eq(members), specialMessage(SUCCESS));
+        verify(messenger).sendTo(eq(members), decidedUpTo(1));
 
         verifyNoMoreInteractions((CommLayer) messenger);
     }
 
     @Test
-    public void testFilteringSuccessAckMessages() throws Exception {
+    public void testNotRepeatingDecidedMessages() throws Exception {
         createGroup(3);
 
         leader.dispatch(new BroadcastRequest("hello", 1));
         verify(messenger).sendTo(eq(members), specialMessage(ACCEPT));
 
         mockAcceptedFromAllMembers(0, 1);
-        verify(messenger).sendTo(eq(members), specialMessage(SUCCESS));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
 
         leader.dispatch(new TestMessageWithSender(members.get(0)));
         leader.dispatch(new TestMessageWithSender(members.get(1)));
@@ -280,6 +341,48 @@ public class LeaderLogicTest {
         verifyNoMoreInteractions((CommLayer) messenger);
     }
 
+    @Test
+    public void testAnnouncingWhatIsDecidedUntilAllMembersDeliveredIt() throws Exception {
+        createGroup(2);
+
+        leader.dispatch(new BroadcastRequest("hello", 1));
+        mockAcceptedFromAllMembers(0, 1);
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "hello"));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
+
+        advanceTimeTo(MultiRequest.RESEND_INTERVAL + 1);
+        verify(messenger, times(2)).sendTo(eq(members), decidedUpTo(0));
+
+        for (Member member : members) leader.dispatch(new Accepted(viewNo, -1, 0, EMPTY_SET, member, 0, 0));
+        advanceTimeTo(2 * MultiRequest.RESEND_INTERVAL + 2);
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
+    @Test
+    public void testForgettingMessagesAllMembersDelivered() throws Exception {
+        createGroup(2);
+
+        leader.dispatch(new BroadcastRequest("hello", 1));
+        mockAcceptedFromAllMembers(0, 1);
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "hello"));
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
+
+        leader.dispatch(new Accepted(viewNo, -1, 0, EMPTY_SET, members.get(0), 0, 0));
+        leader.dispatch(new BroadcastRequest("hello", 1));
+        verifyNoMoreInteractions((CommLayer) messenger); // still remembered
+        assertEquals(asSet(0l), leader.proposals.keySet());
+
+        leader.dispatch(new Accepted(viewNo, -1, 0, EMPTY_SET, members.get(1), 0, 0));
+        assertTrue(leader.proposals.isEmpty());
+        leader.receive(MessageCodec.encode(new Abort(viewNo, 0), membership)); // about a forgotten slot
+        leader.dispatch(new BroadcastRequest("hello", 1));
+        verify(messenger).sendTo(eq(members), acceptMessage(1, "hello"));
+        assertEquals(asSet(1l), leader.proposals.keySet());
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
     @Test
     public void testCompetingLeaders() throws Exception {
         createGroup(3);
@@ -295,6 +398,98 @@ public class LeaderLogicTest {
         verifyNoMoreInteractions((CommLayer) messenger);
     }
 
+    @Test
+    public void testDroppingRepliesFromOtherViews() throws Exception {
+        createGroup(2);
+
+        leader.dispatch(new BroadcastRequest("hello", 1));
+        verify(messenger).sendTo(eq(members), specialMessage(ACCEPT));
+
+        for (Member member : members) {
+            leader.receive(MessageCodec.encode(new Accepted(viewNo - 1, 0, 1, EMPTY_SET, member)));
+        }
+        leader.receive(MessageCodec.encode(new ViewAccepted(viewNo - 1, EMPTY_MAP, members.get(0))));
+        verifyNoMoreInteractions((CommLayer) messenger);
+
+        for (Member member : members) {
+            leader.receive(MessageCodec.encode(new Accepted(viewNo, 0, 1, EMPTY_SET, member)));
+        }
+        verify(messenger).sendTo(eq(members), decidedUpTo(0));
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
+    @Test
+    public void testBatchingRequestsWhileAnAcceptIsInFlight() throws Exception {
+        createGroup(2);
+
+        leader.dispatch(new BroadcastRequest("a", 1));
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "a"));
+        leader.dispatch(new BroadcastRequest("b", 2));
+        leader.dispatch(new BroadcastRequest("c", 3));
+        verifyNoMoreInteractions((CommLayer) messenger);
+
+        mockAcceptedFromAllMembers(0, 1);
+        verify(messenger).sendTo(eq(members), acceptMessage(1, new Batch(Arrays.<Serializable>asList("b", "c"), new long[] {2, 3}), 0));
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
+    @Test
+    public void testProposingHeldBackRequestsAfterADelay() throws Exception {
+        createGroup(2);
+
+        leader.dispatch(new BroadcastRequest("a", 1));
+        leader.dispatch(new BroadcastRequest("b", 2));
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "a"));
+
+        advanceTimeTo((int) LeaderLogic.MAX_BATCH_DELAY);
+        verify(messenger).sendTo(eq(members), acceptMessage(1, "b"));
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
+    @Test
+    public void testHoldingRequestsBeyondTheWindow() throws Exception {
+        createGroup(2);
+        leader.setWindow(1);
+
+        leader.dispatch(new BroadcastRequest("a", 1));
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "a"));
+        List<Serializable> messages = new ArrayList<Serializable>();
+        long[] msgIds = new long[LeaderLogic.MAX_BATCH_MESSAGES];
+        for (int i = 0; i < LeaderLogic.MAX_BATCH_MESSAGES; i++) {
+            messages.add("m" + i);
+            msgIds[i] = i + 2;
+            leader.dispatch(new BroadcastRequest("m" + i, i + 2));
+        }
+        verifyNoMoreInteractions((CommLayer) messenger); // the batch is full, but the window is too
+
+        mockAcceptedFromAllMembers(0, 1);
+        verify(messenger).sendTo(eq(members), acceptMessage(1, new Batch(messages, msgIds), 0));
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
+    @Test
+    public void testTurningRequestsAwayWhenTooManyAreWaiting() throws Exception {
+        createGroup(2);
+        leader.setWindow(1);
+
+        leader.dispatch(new BroadcastRequest("a", 1));
+        verify(messenger).sendTo(eq(members), acceptMessage(0, "a"));
+        for (int i = 0; i < LeaderLogic.MAX_QUEUED_REQUESTS; i++) {
+            leader.dispatch(new BroadcastRequest("m" + i, i + 2));
+        }
+        verifyNoMoreInteractions((CommLayer) messenger);
+
+        long msgId = AcceptorLogic.MAX_CIRCULATING_MESSAGES + 1; // from the second member
+        leader.dispatch(new BroadcastRequest("b", msgId));
+        verify(messenger).sendTo(eq(members.get(1)), specialMessage(BUSY));
+
+        verifyNoMoreInteractions((CommLayer) messenger);
+    }
+
     private void mockAcceptedFromAllMembers(long seqNo, long msgId) {
         for (Member member : members) {
             leader.dispatch(new Accepted(viewNo, seqNo, msgId, EMPTY_SET, member));
@@ -318,8 +513,54 @@ public class LeaderLogicTest {
         }
     }
 
+    @Test
+    public void testNotProposingCommittedMessagesAgain() throws Exception {
+        members = TestUtils.createMembersOnLocalhost(3);
+        membership = createMembership(members, 1);
+        CommLayer messenger2 = mock(CommLayer.class);
+        long newViewNo = 4;
+
+        Map<Long,Acceptance> firstChunk = new HashMap<Long, Acceptance>();
+        firstChunk.put(6l, new Acceptance(1, "a", 1));
+        Map<Long,Acceptance> secondChunk = new HashMap<Long, Acceptance>();
+        secondChunk.put(8l, new Acceptance(1, "b", 2));
+
+        LeaderLogic newLeader = new LeaderLogic(membership, messenger2, 0, committedUpTo(4));
+
+        newLeader.memberFailed(members.get(2), asSet(members.get(0), members.get(1)));
+        verify(messenger2).sendTo(eq(members), message(committedSeqNo(4)));
+
+        newLeader.dispatch(new ViewAccepted(newViewNo, EMPTY_MAP, members.get(0)));
+        newLeader.dispatch(new ViewAccepted(newViewNo, firstChunk, members.get(1), 0, 2));
+        verifyNoMoreInteractions((CommLayer) messenger2); // waiting for the second chunk
+
+        newLeader.dispatch(new ViewAccepted(newViewNo, secondChunk, members.get(1), 1, 2));
+        verify(messenger2).sendTo(eq(members), acceptRange(5, NO_OP, "a", NO_OP, "b"));
+
+        verifyNoMoreInteractions((CommLayer) messenger2);
+    }
+
+    private AcceptorLogic committedUpTo(long seqNo) {
+        AcceptorLogic acceptor = mock(AcceptorLogic.class);
+        when(acceptor.getCommitted()).thenReturn(seqNo);
+        return acceptor;
+    }
+
+    private Matcher<Serializable> committedSeqNo(final long seqNo) {
+        return new TypeSafeMatcher<Serializable>() {
+            @Override
+            protected boolean matchesSafely(Serializable message) {
+                return message instanceof NewView && ((NewView) message).committed == seqNo;
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("a NewView with committed seqNo " + seqNo);
+            }
+        };
+    }
+
     private void advanceTimeTo(int time) {
-        leader.update(new Tick(time));
+        leader.update(time);
     }
 
     private class TestMessageWithSender implements MessageWithSender {
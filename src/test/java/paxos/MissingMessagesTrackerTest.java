@@ -1,10 +1,12 @@
 package paxos;
 
 import org.junit.Test;
+import paxos.messages.SeqNoRanges;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -23,6 +25,17 @@ public class MissingMessagesTrackerTest {
         assertEquals(tail.getMissing(1), Collections.<Long>emptySet());
     }
 
+    @Test
+    public void testTellingWhatWasReceived() throws Exception {
+        MissingMessagesTracker tail = new MissingMessagesTracker();
+        tail.received(0);
+        tail.received(2);
+        assertTrue(tail.isReceived(0));
+        assertFalse(tail.isReceived(1));
+        assertTrue(tail.isReceived(2));
+        assertFalse(tail.isReceived(3));
+    }
+
     @Test
     public void testOneMessageThenGap() throws Exception {
         MissingMessagesTracker tail = new MissingMessagesTracker();
@@ -86,4 +99,66 @@ public class MissingMessagesTrackerTest {
         tail.received(4);
         assertEquals(tail.getMissing(7), new HashSet<Long>(Arrays.asList(5l, 6l)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReportingGapsAsRanges() throws Exception {
+        MissingMessagesTracker tail = new MissingMessagesTracker();
+        tail.received(0);
+        tail.received(5);
+        tail.received(6);
+        SeqNoRanges missing = (SeqNoRanges) tail.getMissing(10);
+        assertEquals(2, missing.getRangeCount());
+        assertEquals(new HashSet<Long>(Arrays.asList(1l, 2l, 3l, 4l, 7l, 8l, 9l)), missing);
+    }
+
+    @Test
+    public void testCappingTheMissingMessages() throws Exception {
+        MissingMessagesTracker tail = new MissingMessagesTracker();
+        tail.received(0);
+        Set<Long> missing = tail.getMissing(100000);
+        assertEquals(MissingMessagesTracker.MAX_REPORTED_MISSING, missing.size());
+        assertTrue(missing.contains(1l));
+        assertFalse(missing.contains((long) MissingMessagesTracker.MAX_REPORTED_MISSING + 1));
+    }
+
+    @Test
+    public void testMergingWhatWasReceivedOutOfOrder() throws Exception {
+        MissingMessagesTracker tail = new MissingMessagesTracker();
+        tail.received(5);
+        tail.received(3);
+        tail.received(4);
+        SeqNoRanges missing = (SeqNoRanges) tail.getMissing(7);
+        assertEquals(new HashSet<Long>(Arrays.asList(0l, 1l, 2l, 6l)), missing);
+
+        tail.received(0);
+        tail.received(2);
+        tail.received(1);
+        assertEquals(6, tail.getTail());
+    }
+
+    @Test
+    public void testReportingOneGapBeforeManyReceivedMessages() throws Exception {
+        MissingMessagesTracker tail = new MissingMessagesTracker();
+        for (long seqNo = 0; seqNo <= 100000; seqNo++) {
+            if (seqNo != 5) tail.received(seqNo);
+        }
+        SeqNoRanges missing = (SeqNoRanges) tail.getMissing(100010);
+        assertEquals(new HashSet<Long>(Arrays.asList(5l, 100001l, 100002l, 100003l, 100004l, 100005l, 100006l, 100007l,
+                100008l, 100009l)), missing);
+        assertEquals(2, missing.getRangeCount());
+        assertTrue(tail.isReceived(6));
+        assertFalse(tail.isReceived(5));
+    }
+
+    @Test
+    public void testSkippingReceivedRunsToTheNextMissingMessage() throws Exception {
+        MissingMessagesTracker tail = new MissingMessagesTracker();
+        for (long seqNo = 0; seqNo < 10; seqNo++) {
+            if (seqNo != 3) tail.received(seqNo);
+        }
+        assertEquals(3, tail.getNextMissing(0));
+        assertEquals(3, tail.getNextMissing(3));
+        assertEquals(10, tail.getNextMissing(4));
+        assertEquals(12, tail.getNextMissing(12));
+    }
+}
@@ -3,7 +3,6 @@ package paxos;
 import org.junit.Test;
 import paxos.communication.CommLayer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
 import paxos.messages.MessageWithSender;
 
 import java.io.Serializable;
@@ -38,7 +37,7 @@ public class MultiRequestTest {
 
         verify(messenger).sendTo(members, HELLO_BYTES);
 
-        multiRequest.receive(new Tick(1001));
+        multiRequest.tick(1001);
 
         verify(messenger).sendTo(members.get(0), HELLO_BYTES);
         verify(messenger).sendTo(members.get(1), HELLO_BYTES);
@@ -87,7 +86,7 @@ public class MultiRequestTest {
 
         verify(messenger).sendTo(members, HELLO_BYTES);
 
-        multiRequest.receive(new Tick(1000));
+        multiRequest.tick(1000);
 
         multiRequest.receive(new WrongResponse("yes", members.get(0)));
         multiRequest.receive(new WrongResponse("yes", members.get(1)));
@@ -118,7 +117,7 @@ public class MultiRequestTest {
 
         verify(messenger).sendTo(members, HELLO_BYTES);
 
-        multiRequest.receive(new Tick(1001));
+        multiRequest.tick(1001);
 
         verify(messenger).sendTo(members.get(0), HELLO_BYTES);
         verify(messenger).sendTo(members.get(1), HELLO_BYTES);
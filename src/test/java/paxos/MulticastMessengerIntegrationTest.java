@@ -0,0 +1,118 @@
+package paxos;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+import paxos.communication.MulticastMessenger;
+import paxos.communication.UDPMessenger;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class MulticastMessengerIntegrationTest {
+    private final NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    private final InetAddress groupAddress = InetAddress.getByName("239.255.44.1");
+    private MulticastMessenger[] messengers = new MulticastMessenger[0];
+    private BasicGroup[] groups = new BasicGroup[0];
+
+    public MulticastMessengerIntegrationTest() throws Exception {}
+
+    @After
+    public void tearDown() throws Exception {
+        for (BasicGroup group : groups) group.close();
+        for (MulticastMessenger messenger : messengers) messenger.close();
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testSendingOnePacketToTheWholeGroup() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        CommLayer[] unicast = new CommLayer[3];
+        CommLayer.MessageListener[] listeners = new CommLayer.MessageListener[3];
+        messengers = new MulticastMessenger[3];
+        for (int i = 0; i < 3; i++) {
+            unicast[i] = mock(CommLayer.class);
+            listeners[i] = mock(CommLayer.MessageListener.class);
+            messengers[i] = new MulticastMessenger(unicast[i], TestUtils.createMembership(members, i), groupAddress,
+                    MulticastMessenger.DEFAULT_PORT, loopback);
+            messengers[i].setListener(listeners[i]);
+        }
+
+        messengers[0].sendTo(members, "hello".getBytes());
+        messengers[0].sendTo(members.subList(1, 3), "retransmit".getBytes());
+
+        for (CommLayer.MessageListener listener : listeners) verify(listener, timeout(1000)).receive("hello".getBytes());
+        verify(unicast[0]).sendTo(members.subList(1, 3), "retransmit".getBytes());
+        verify(unicast[0], never()).sendTo(eq(members), any(byte[].class));
+    }
+
+    @Test
+    public void testIgnoringOtherGroupsOnTheSameAddress() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        CommLayer.MessageListener ours = mock(CommLayer.MessageListener.class);
+        CommLayer.MessageListener theirs = mock(CommLayer.MessageListener.class);
+        messengers = new MulticastMessenger[] {
+                new MulticastMessenger(mock(CommLayer.class), new GroupMembership(members, members.get(0), 1),
+                        groupAddress, MulticastMessenger.DEFAULT_PORT, loopback),
+                new MulticastMessenger(mock(CommLayer.class), new GroupMembership(members, members.get(1), 2),
+                        groupAddress, MulticastMessenger.DEFAULT_PORT, loopback)};
+        messengers[0].setListener(ours);
+        messengers[1].setListener(theirs);
+
+        messengers[0].sendTo(members, "hello".getBytes());
+
+        verify(ours, timeout(1000)).receive("hello".getBytes());
+        Thread.sleep(200);
+        verify(theirs, never()).receive(any(byte[].class));
+    }
+
+    @Test
+    public void testIgnoringOtherAddressesOnTheSamePort() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        CommLayer.MessageListener ours = mock(CommLayer.MessageListener.class);
+        CommLayer.MessageListener theirs = mock(CommLayer.MessageListener.class);
+        messengers = new MulticastMessenger[] {
+                new MulticastMessenger(mock(CommLayer.class), TestUtils.createMembership(members, 0),
+                        groupAddress, MulticastMessenger.DEFAULT_PORT, loopback),
+                new MulticastMessenger(mock(CommLayer.class), TestUtils.createMembership(members, 1),
+                        InetAddress.getByName("239.255.44.2"), MulticastMessenger.DEFAULT_PORT, loopback)};
+        messengers[0].setListener(ours);
+        messengers[1].setListener(theirs);
+
+        messengers[0].sendTo(members, "hello".getBytes());
+
+        verify(ours, timeout(1000)).receive("hello".getBytes());
+        Thread.sleep(200);
+        verify(theirs, never()).receive(any(byte[].class));
+    }
+
+    @Test
+    public void testBroadcastingThroughAGroup() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        messengers = new MulticastMessenger[3];
+        groups = new BasicGroup[3];
+        Receiver[] receivers = new Receiver[3];
+        for (int i = 0; i < 3; i++) {
+            GroupMembership membership = TestUtils.createMembership(members, i);
+            messengers[i] = new MulticastMessenger(new UDPMessenger(members.get(i).getPort()), membership,
+                    MulticastMessenger.groupAddressFor(membership), MulticastMessenger.DEFAULT_PORT, loopback);
+            receivers[i] = Mockito.mock(Receiver.class);
+            groups[i] = new BasicGroup(membership, messengers[i], receivers[i]);
+        }
+        Thread.sleep(500); // allow some time for leader election
+
+        groups[0].broadcast("hello");
+        groups[2].broadcast("world");
+
+        for (Receiver receiver : receivers) {
+            verify(receiver, timeout(1000)).receive("hello");
+            verify(receiver, timeout(1000)).receive("world");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package paxos;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import paxos.communication.BufferPool;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+import paxos.communication.NioMessenger;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class NioMessengerIntegrationTest {
+    private NioMessenger[] messengers = new NioMessenger[0];
+    private BasicGroup[] groups = new BasicGroup[0];
+
+    @After
+    public void tearDown() throws Exception {
+        for (BasicGroup group : groups) group.close();
+        for (NioMessenger messenger : messengers) messenger.close();
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testSendingMessages() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        messengers = new NioMessenger[] {new NioMessenger(2440), new NioMessenger(2441)};
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        messengers[1].setListener(listener);
+
+        messengers[0].sendTo(members.get(1), "hello".getBytes());
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put("hi".getBytes()).flip();
+        messengers[0].sendTo(members.get(1), buffer);
+
+        verify(listener, timeout(1000)).receive("hello".getBytes());
+        verify(listener, timeout(1000)).receive("hi".getBytes());
+        verify(listener, timeout(1000).atLeast(2)).tick(anyLong());
+    }
+
+    @Test
+    public void testDeliveringMessagesToItselfWithoutTheChannel() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(1);
+        messengers = new NioMessenger[] {new NioMessenger(2440)};
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        messengers[0].setListener(listener);
+        byte[] tooBigForADatagram = new byte[2 * NioMessenger.BUFFER_SIZE];
+
+        messengers[0].sendTo(members.get(0), tooBigForADatagram);
+
+        verify(listener, timeout(1000)).receive(tooBigForADatagram);
+    }
+
+    @Test
+    public void testBroadcastingThroughAGroup() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        messengers = new NioMessenger[3];
+        groups = new BasicGroup[3];
+        Receiver[] receivers = new Receiver[3];
+        for (int i = 0; i < 3; i++) {
+            messengers[i] = new NioMessenger(members.get(i).getPort());
+            receivers[i] = Mockito.mock(Receiver.class);
+            groups[i] = new BasicGroup(TestUtils.createMembership(members, i), messengers[i], receivers[i]);
+        }
+        Thread.sleep(500); // allow some time for leader election
+
+        groups[0].broadcast("hello");
+
+        for (Receiver receiver : receivers) verify(receiver, timeout(1000)).receive("hello");
+    }
+}
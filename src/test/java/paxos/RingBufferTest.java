@@ -0,0 +1,95 @@
+package paxos;
+
+import org.junit.Test;
+import paxos.communication.RingBuffer;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+    @Test
+    public void testKeepingTheOrder() throws Exception {
+        RingBuffer<Integer> ring = new RingBuffer<Integer>(4, RingBuffer.WaitStrategy.PARK, RingBuffer.OverflowPolicy.DROP);
+
+        for (int i = 0; i < 10; i++) {
+            ring.offer(2 * i);
+            ring.offer(2 * i + 1);
+            assertEquals(2, ring.size());
+            assertEquals(2 * i, (int) ring.poll());
+            assertEquals(2 * i + 1, (int) ring.poll());
+        }
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void testDroppingWhenFull() throws Exception {
+        RingBuffer<Integer> ring = new RingBuffer<Integer>(3, RingBuffer.WaitStrategy.PARK, RingBuffer.OverflowPolicy.DROP);
+        assertEquals(4, ring.capacity());
+
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+
+        assertEquals(1, ring.getDropped());
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(5));
+    }
+
+    @Test
+    public void testHandingOverToAnotherThread() throws Exception {
+        boolean singleCpu = Runtime.getRuntime().availableProcessors() == 1;
+        for (RingBuffer.WaitStrategy waitStrategy : RingBuffer.WaitStrategy.values()) {
+            // a spinning thread only lets the other one run when its time slice is over
+            if (singleCpu && waitStrategy == RingBuffer.WaitStrategy.BUSY_SPIN) continue;
+            final RingBuffer<Integer> ring = new RingBuffer<Integer>(16, waitStrategy, RingBuffer.OverflowPolicy.BLOCK);
+            final int count = 5000;
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < count; i++) ring.offer(i);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            producer.start();
+
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, (int) ring.take());
+            }
+            producer.join();
+            assertEquals(0, ring.getDropped());
+        }
+    }
+
+    @Test
+    public void testWakingUpAParkedConsumer() throws Exception {
+        final RingBuffer<Integer> ring = new RingBuffer<Integer>(4, RingBuffer.WaitStrategy.PARK, RingBuffer.OverflowPolicy.DROP);
+        final int[] taken = {-1};
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken[0] = ring.take();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        consumer.start();
+        Thread.sleep(200); // long enough to be parked for good
+
+        ring.offer(42);
+
+        consumer.join(1000);
+        assertEquals(42, taken[0]);
+    }
+
+    @Test
+    public void testSaturatingTheIdleCount() throws Exception {
+        for (RingBuffer.WaitStrategy waitStrategy : RingBuffer.WaitStrategy.values()) {
+            int idleCount = 0;
+            for (int i = 0; i < 300; i++) idleCount = waitStrategy.idle(idleCount);
+            assertEquals(idleCount, waitStrategy.idle(idleCount));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package paxos;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import paxos.communication.BufferPool;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+import paxos.communication.RingBuffer;
+import paxos.communication.SharedMemoryMessenger;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SharedMemoryMessengerIntegrationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private SharedMemoryMessenger[] messengers = new SharedMemoryMessenger[0];
+    private BasicGroup[] groups = new BasicGroup[0];
+
+    @After
+    public void tearDown() throws Exception {
+        for (BasicGroup group : groups) group.close();
+        for (SharedMemoryMessenger messenger : messengers) messenger.close();
+        Thread.sleep(200);
+    }
+
+    @Test
+    public void testSendingMessagesOfAnySize() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        messengers = new SharedMemoryMessenger[] {createMessenger(2440, 4 * 1024 * 1024), createMessenger(2441, 4 * 1024 * 1024)};
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        messengers[1].setListener(listener);
+        byte[] large = new byte[1024 * 1024];
+        large[large.length - 1] = 1;
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put("hi".getBytes()).flip();
+
+        messengers[0].sendTo(members.get(1), "hello".getBytes());
+        messengers[0].sendTo(members.get(1), large);
+        messengers[0].sendTo(members.get(1), buffer);
+
+        verify(listener, timeout(1000)).receive("hello".getBytes());
+        verify(listener, timeout(1000)).receive(large);
+        verify(listener, timeout(1000)).receive("hi".getBytes());
+        verify(listener, timeout(1000).atLeast(2)).tick(anyLong());
+    }
+
+    @Test
+    public void testWrappingAroundAndDroppingWhenFull() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        messengers = new SharedMemoryMessenger[] {createMessenger(2440, 1001)};
+        for (int i = 0; i < 10; i++) {
+            messengers[0].sendTo(members.get(1), new byte[196]);
+        }
+        assertEquals(5, messengers[0].getDropped());
+
+        messengers = new SharedMemoryMessenger[] {messengers[0], createMessenger(2441, 1001)};
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        messengers[1].setListener(listener);
+        for (int i = 0; i < 20; i++) {
+            messengers[0].sendTo(members.get(1), new byte[] {(byte) i, 1, 2});
+            verify(listener, timeout(1000)).receive(new byte[] {(byte) i, 1, 2});
+        }
+    }
+
+    @Test
+    public void testDroppingMessagesTooBigForTheInbox() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        messengers = new SharedMemoryMessenger[] {createMessenger(2440, 1001)};
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put(new byte[2000]).flip();
+
+        messengers[0].sendTo(members.get(1), buffer);
+        messengers[0].sendTo(members.get(1), new byte[2000]);
+
+        assertEquals(2, messengers[0].getDropped());
+        assertSame(buffer, BufferPool.acquire());
+    }
+
+    @Test
+    public void testBroadcastingThroughAGroup() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        messengers = new SharedMemoryMessenger[3];
+        groups = new BasicGroup[3];
+        Receiver[] receivers = new Receiver[3];
+        for (int i = 0; i < 3; i++) {
+            messengers[i] = createMessenger(members.get(i).getPort(), SharedMemoryMessenger.DEFAULT_CAPACITY);
+            receivers[i] = Mockito.mock(Receiver.class);
+            groups[i] = new BasicGroup(TestUtils.createMembership(members, i), messengers[i], receivers[i]);
+        }
+        Thread.sleep(500); // allow some time for leader election
+
+        groups[0].broadcast("hello");
+        groups[1].broadcast("world");
+
+        for (Receiver receiver : receivers) {
+            verify(receiver, timeout(1000)).receive("hello");
+            verify(receiver, timeout(1000)).receive("world");
+        }
+    }
+
+    private SharedMemoryMessenger createMessenger(int port, int capacity) throws Exception {
+        return new SharedMemoryMessenger(folder.getRoot(), port, capacity, RingBuffer.WaitStrategy.PARK);
+    }
+}
@@ -0,0 +1,83 @@
+package paxos;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+import paxos.communication.TcpMessenger;
+
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+public class TcpMessengerIntegrationTest {
+    private TcpMessenger[] messengers = new TcpMessenger[0];
+    private BasicGroup[] groups = new BasicGroup[0];
+
+    @After
+    public void tearDown() throws Exception {
+        for (BasicGroup group : groups) group.close();
+        for (TcpMessenger messenger : messengers) messenger.close();
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testSendingLargeMessages() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        messengers = new TcpMessenger[] {new TcpMessenger(2440), new TcpMessenger(2441)};
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        messengers[1].setListener(listener);
+        byte[] large = new byte[1024 * 1024];
+        large[large.length - 1] = 1;
+
+        messengers[0].sendTo(members.get(1), "hello".getBytes());
+        messengers[0].sendTo(members.get(1), large);
+
+        verify(listener, timeout(1000)).receive("hello".getBytes());
+        verify(listener, timeout(1000)).receive(large);
+        verify(listener, timeout(1000).atLeast(2)).tick(anyLong());
+    }
+
+    @Test
+    public void testReconnectingToARestartedMember() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        messengers = new TcpMessenger[] {new TcpMessenger(2440), new TcpMessenger(2441)};
+        messengers[0].sendTo(members.get(1), "lost".getBytes());
+        Thread.sleep(200);
+        messengers[1].close();
+        Thread.sleep(200);
+
+        messengers[1] = new TcpMessenger(2441);
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        messengers[1].setListener(listener);
+        for (int i = 0; i < 50; i++) {
+            messengers[0].sendTo(members.get(1), "hello".getBytes());
+            Thread.sleep(100);
+        }
+
+        verify(listener, atLeastOnce()).receive("hello".getBytes());
+    }
+
+    @Test
+    public void testBroadcastingThroughAGroup() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(3);
+        messengers = new TcpMessenger[3];
+        groups = new BasicGroup[3];
+        Receiver[] receivers = new Receiver[3];
+        for (int i = 0; i < 3; i++) {
+            messengers[i] = new TcpMessenger(members.get(i).getPort());
+            receivers[i] = Mockito.mock(Receiver.class);
+            groups[i] = new BasicGroup(TestUtils.createMembership(members, i), messengers[i], receivers[i]);
+        }
+        Thread.sleep(500); // allow some time for leader election
+
+        groups[0].broadcast("hello");
+        groups[1].broadcast("world");
+
+        for (Receiver receiver : receivers) {
+            verify(receiver, timeout(1000)).receive("hello");
+            verify(receiver, timeout(1000)).receive("world");
+        }
+    }
+}
@@ -7,24 +7,40 @@ import org.mockito.Matchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import paxos.communication.Member;
-import paxos.communication.Tick;
 import paxos.messages.Accept;
+import paxos.messages.AcceptRange;
 import paxos.messages.Accepted;
+import paxos.messages.Heartbeat;
+import paxos.messages.MessageCodec;
 import paxos.messages.NewView;
 import paxos.messages.SpecialMessage;
 
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class TestUtils {
+    /**
+     * Resolves the members referred to by position in messages of the groups created by these utilities, whose
+     * members are local ports starting at 2440.
+     */
+    private static final GroupMembership LOCALHOST_GROUP = createLocalhostGroup();
     public static List<Member> createMembersOnLocalhost(int n) throws UnknownHostException {
         List<Member> list = new ArrayList<Member>(n);
         for (int i = 0; i < n; i++) list.add(localMember(2440 + i));
         return list;
     }
 
+    private static GroupMembership createLocalhostGroup() {
+        try {
+            return new GroupMembership(createMembersOnLocalhost(10), 0);
+        } catch (UnknownHostException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static GroupMembership createMembership(List<Member> members, int n) {
         return new GroupMembership(members, members.get(n));
     }
@@ -34,9 +50,17 @@ public class TestUtils {
     }
 
     public static byte[] specialMessage(final SpecialMessage.MessageType messageType) {
-        return Matchers.argThat(new TypeSafeMatcher<byte[]>() {
+        return Matchers.argThat(specialMessageMatcher(messageType));
+    }
+
+    public static ByteBuffer specialMessageBuffer(final SpecialMessage.MessageType messageType) {
+        return Matchers.argThat(inBuffer(specialMessageMatcher(messageType)));
+    }
+
+    private static Matcher<byte[]> specialMessageMatcher(final SpecialMessage.MessageType messageType) {
+        return new TypeSafeMatcher<byte[]>() {
             protected boolean matchesSafely(byte[] bytes) {
-                Serializable message = (Serializable) PaxosUtils.deserialize(bytes);
+                Serializable message = (Serializable) MessageCodec.decode(bytes, LOCALHOST_GROUP);
                 if (message instanceof SpecialMessage) {
                     SpecialMessage specialMessage = (SpecialMessage) message;
                     return specialMessage.getMessageType() == messageType;
@@ -47,13 +71,30 @@ public class TestUtils {
             public void describeTo(Description description) {
                 description.appendText("envelope of type " + messageType.toString());
             }
+        };
+    }
+
+    public static byte[] acceptMessage(final long seqNo, final Serializable msg, final long decidedUpTo) {
+        return Matchers.argThat(new TypeSafeMatcher<byte[]>() {
+            protected boolean matchesSafely(byte[] bytes) {
+                Serializable message = (Serializable) MessageCodec.decode(bytes, LOCALHOST_GROUP);
+                if (message instanceof Accept) {
+                    Accept accept = (Accept) message;
+                    return accept.seqNo == seqNo && msg.equals(accept.message) && accept.committed == decidedUpTo;
+                }
+                return false;
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("An ACCEPT message with seqNo: " + seqNo + " message: " + msg + " decided up to: " + decidedUpTo);
+            }
         });
     }
 
     public static byte[] acceptMessage(final long seqNo, final Serializable msg) {
         return Matchers.argThat(new TypeSafeMatcher<byte[]>() {
             protected boolean matchesSafely(byte[] bytes) {
-                Serializable message = (Serializable) PaxosUtils.deserialize(bytes);
+                Serializable message = (Serializable) MessageCodec.decode(bytes, LOCALHOST_GROUP);
                 if (message instanceof Accept) {
                     Accept accept = (Accept) message;
                     return accept.seqNo == seqNo && msg.equals(accept.message);
@@ -67,6 +108,35 @@ public class TestUtils {
         });
     }
 
+    public static byte[] acceptRange(final long firstSeqNo, final Serializable... msgs) {
+        return Matchers.argThat(new TypeSafeMatcher<byte[]>() {
+            protected boolean matchesSafely(byte[] bytes) {
+                Serializable message = (Serializable) MessageCodec.decode(bytes, LOCALHOST_GROUP);
+                if (message instanceof AcceptRange) {
+                    AcceptRange range = (AcceptRange) message;
+                    return range.firstSeqNo == firstSeqNo && Arrays.asList(msgs).equals(range.messages);
+                }
+                return false;
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("An ACCEPT_RANGE message from seqNo: " + firstSeqNo + " messages: " + Arrays.toString(msgs));
+            }
+        });
+    }
+
+    public static byte[] decidedUpTo(final long seqNo) {
+        return Matchers.argThat(deserialized(new TypeSafeMatcher<Heartbeat>() {
+            protected boolean matchesSafely(Heartbeat heartbeat) {
+                return heartbeat.committed == seqNo;
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("A HEARTBEAT announcing everything decided up to seqNo: " + seqNo);
+            }
+        }));
+    }
+
     public static byte[] newView(final long viewNo) {
         return Matchers.argThat(deserialized(new TypeSafeMatcher<NewView>() {
             protected boolean matchesSafely(NewView newView) {
@@ -83,10 +153,33 @@ public class TestUtils {
         return Matchers.argThat(deserialized(m));
     }
 
+    public static ByteBuffer messageBuffer(Matcher m) {
+        return Matchers.argThat(inBuffer(deserialized(m)));
+    }
+
+    /**
+     * Matches the remaining bytes of a buffer without consuming them.
+     */
+    public static Matcher<ByteBuffer> inBuffer(final Matcher<byte[]> m) {
+        return new TypeSafeMatcher<ByteBuffer>() {
+            protected boolean matchesSafely(ByteBuffer buffer) {
+                ByteBuffer duplicate = buffer.duplicate();
+                byte[] bytes = new byte[duplicate.remaining()];
+                duplicate.get(bytes);
+                return m.matches(bytes);
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("buffer containing ");
+                m.describeTo(description);
+            }
+        };
+    }
+
     public static Matcher<byte[]> deserialized(final Matcher m) {
         return new TypeSafeMatcher<byte[]>() {
             protected boolean matchesSafely(byte[] bytes) {
-                return m.matches(PaxosUtils.deserialize(bytes));
+                return m.matches(MessageCodec.decode(bytes, LOCALHOST_GROUP));
             }
 
             public void describeTo(Description description) {
@@ -95,10 +188,27 @@ public class TestUtils {
         };
     }
 
-    public static byte[] acceptedMessageWithMissingList(final long... seqNos) {
-        return Matchers.argThat(new TypeSafeMatcher<byte[]>() {
+    public static ByteBuffer acceptedMessageUpTo(final long seqNo, final long acceptedUpTo) {
+        return Matchers.argThat(inBuffer(new TypeSafeMatcher<byte[]>() {
             protected boolean matchesSafely(byte[] bytes) {
-                Serializable message = (Serializable) PaxosUtils.deserialize(bytes);
+                Serializable message = (Serializable) MessageCodec.decode(bytes, LOCALHOST_GROUP);
+                if (message instanceof Accepted) {
+                    Accepted accepted = (Accepted) message;
+                    return accepted.seqNo == seqNo && accepted.acceptedUpTo == acceptedUpTo;
+                }
+                return false;
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("ACCEPTED message for seqNo " + seqNo + " accepting everything up to " + acceptedUpTo);
+            }
+        }));
+    }
+
+    public static ByteBuffer acceptedMessageWithMissingList(final long... seqNos) {
+        return Matchers.argThat(inBuffer(new TypeSafeMatcher<byte[]>() {
+            protected boolean matchesSafely(byte[] bytes) {
+                Serializable message = (Serializable) MessageCodec.decode(bytes, LOCALHOST_GROUP);
                 if (message instanceof Accepted) {
                     Accepted accepted = (Accepted) message;
                     if (seqNos.length != accepted.missingSuccess.size()) return false;
@@ -113,7 +223,7 @@ public class TestUtils {
             public void describeTo(Description description) {
                 description.appendText("ACCEPTED message with missing list : " + Arrays.toString(seqNos));
             }
-        });
+        }));
     }
 
     public static <T> Set<T> asSet(T... elements) {
@@ -127,10 +237,6 @@ public class TestUtils {
         Thread.sleep(300);
     }
 
-    public static byte[] tick(long time) {
-        return PaxosUtils.serialize(new Tick(time));
-    }
-
     public static class ArgCaptor<T> implements Answer {
         public T arg;
         public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
@@ -0,0 +1,89 @@
+package paxos;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+import paxos.communication.BufferPool;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+import paxos.communication.UDPMessenger;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.*;
+
+public class UDPMessengerIntegrationTest {
+    private UDPMessenger sender;
+    private UDPMessenger receiver;
+
+    @After
+    public void tearDown() throws Exception {
+        if (sender != null) sender.close();
+        if (receiver != null) receiver.close();
+        Thread.sleep(500);
+    }
+
+    @Test
+    public void testReceivingOnlyTheBytesThatWereSent() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        sender = new UDPMessenger(2440);
+        receiver = new UDPMessenger(2441);
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        receiver.setListener(listener);
+
+        sender.sendTo(members.get(1), "a longer message".getBytes());
+        sender.sendTo(members.get(1), "short".getBytes());
+
+        verify(listener, timeout(5000).times(2)).receive(any(byte[].class));
+        verify(listener).receive("a longer message".getBytes());
+        verify(listener).receive("short".getBytes());
+    }
+
+    @Test
+    public void testReceivingOnSeveralSockets() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        sender = new UDPMessenger(2440);
+        receiver = new UDPMessenger(2441, 4);
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        receiver.setListener(listener);
+
+        for (int i = 0; i < 10; i++) {
+            sender.sendTo(members.get(1), new byte[] {(byte) i});
+        }
+
+        // waits for the number of messages, as a timeout does not wait while the arguments differ
+        verify(listener, timeout(5000).times(10)).receive(any(byte[].class));
+        InOrder inOrder = inOrder(listener);
+        for (int i = 0; i < 10; i++) {
+            inOrder.verify(listener).receive(new byte[] {(byte) i});
+        }
+    }
+
+    @Test
+    public void testDeliveringMessagesToItselfWithoutTheSocket() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(1);
+        receiver = new UDPMessenger(2440);
+        CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+        receiver.setListener(listener);
+        byte[] tooBigForADatagram = new byte[UDPMessenger.BUFFER_SIZE];
+
+        receiver.sendTo(members.get(0), tooBigForADatagram);
+
+        verify(listener, timeout(1000)).receive(tooBigForADatagram);
+    }
+
+    @Test
+    public void testReleasingBuffersSentAfterClosing() throws Exception {
+        List<Member> members = TestUtils.createMembersOnLocalhost(2);
+        sender = new UDPMessenger(2440);
+        sender.close();
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put((byte) 1).flip();
+
+        sender.sendTo(members.get(1), buffer);
+
+        assertSame(buffer, BufferPool.acquire());
+    }
+}
@@ -56,4 +56,19 @@ public class WaitingRoomTest {
 
         verify(receiver, timeout(2000)).receive("released");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTurningAway() throws Exception {
+        WaitingRoom waitingRoom = new WaitingRoom();
+        waitingRoom.turnAway(1l);
+
+        long start = System.currentTimeMillis();
+        assertFalse(waitingRoom.waitALittle(1l));
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertTrue(waitingRoom.wasTurnedAway(1l));
+        assertFalse(waitingRoom.wasTurnedAway(1l));
+
+        waitingRoom.unblock(1l);
+        assertTrue(waitingRoom.waitALittle(1l));
+    }
+}
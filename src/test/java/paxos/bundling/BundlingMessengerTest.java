@@ -0,0 +1,116 @@
+package paxos.bundling;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import paxos.communication.BufferPool;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BundlingMessengerTest {
+    private static final long HOUR = 3600L * 1000 * 1000 * 1000;
+    private final CommLayer underlying = mock(CommLayer.class);
+    private final CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+    private final Member member = new Member(2440);
+    private BundlingMessenger messenger = new BundlingMessenger(underlying, 100, HOUR);
+
+    public BundlingMessengerTest() throws Exception {
+        messenger.setListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        messenger.close();
+    }
+
+    @Test
+    public void testBundlingMessagesForTheSameMember() throws Exception {
+        messenger.sendTo(member, new byte[] {1, 2});
+        messenger.sendTo(member, new byte[] {3});
+        verify(underlying, never()).sendTo(any(Member.class), any(ByteBuffer.class));
+
+        messenger.sendTo(member, new byte[95]);
+
+        byte[] bundle = captureSent();
+        assertEquals(1 + 2 + 2 + 2 + 1, bundle.length);
+        messenger.receive(bundle);
+        verify(listener).receive(new byte[] {1, 2});
+        verify(listener).receive(new byte[] {3});
+    }
+
+    @Test
+    public void testSendingTheBundleAfterTheDelay() throws Exception {
+        messenger.close();
+        messenger = new BundlingMessenger(underlying, 100, 1000 * 1000);
+        messenger.setListener(listener);
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put(new byte[] {1, 2}).flip();
+
+        messenger.sendTo(member, buffer);
+        messenger.sendTo(member, new byte[] {3});
+
+        ArgumentCaptor<ByteBuffer> captor = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(underlying, timeout(1000)).sendTo(eq(member), captor.capture());
+        ByteBuffer sent = captor.getValue();
+        messenger.receive(Arrays.copyOfRange(sent.array(), sent.position(), sent.limit()));
+        verify(listener).receive(new byte[] {1, 2});
+        verify(listener).receive(new byte[] {3});
+    }
+
+    @Test
+    public void testSendingASingleMessageAsItIs() throws Exception {
+        messenger.sendTo(member, new byte[] {1, 2});
+        messenger.close();
+
+        assertArrayEquals(new byte[] {1, 2}, captureSent());
+    }
+
+    @Test
+    public void testSendingLargeMessagesAfterThePendingBundle() throws Exception {
+        byte[] large = new byte[200];
+        messenger.sendTo(member, new byte[] {1});
+        messenger.sendTo(member, large);
+
+        assertArrayEquals(new byte[] {1}, captureSent());
+        verify(underlying).sendTo(member, large);
+    }
+
+    @Test
+    public void testNotMistakingMessagesForBundles() throws Exception {
+        byte[] small = {'B', 1};
+        byte[] large = new byte[200];
+        large[0] = 'B';
+
+        messenger.sendTo(member, small);
+        messenger.sendTo(member, large);
+
+        messenger.receive(captureSent());
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(underlying).sendTo(eq(member), captor.capture());
+        messenger.receive(captor.getValue());
+        verify(listener).receive(small);
+        verify(listener).receive(large);
+    }
+
+    @Test
+    public void testPassingOtherMessagesThrough() throws Exception {
+        messenger.receive(new byte[] {1, 2, 3});
+        messenger.tick(42);
+
+        verify(listener).receive(new byte[] {1, 2, 3});
+        verify(listener).tick(42);
+    }
+
+    private byte[] captureSent() {
+        ArgumentCaptor<ByteBuffer> captor = ArgumentCaptor.forClass(ByteBuffer.class);
+        verify(underlying).sendTo(eq(member), captor.capture());
+        ByteBuffer sent = captor.getValue();
+        return Arrays.copyOfRange(sent.array(), sent.position(), sent.limit());
+    }
+}
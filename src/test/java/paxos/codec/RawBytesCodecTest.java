@@ -0,0 +1,21 @@
+package paxos.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertSame;
+
+public class RawBytesCodecTest {
+    private final RawBytesCodec codec = new RawBytesCodec();
+
+    @Test
+    public void testPassingBytesThrough() throws Exception {
+        byte[] message = {1, 2, 3};
+        assertSame(message, codec.encode(message));
+        assertSame(message, codec.decode(message));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectingOtherMessages() throws Exception {
+        codec.encode("hello");
+    }
+}
@@ -0,0 +1,126 @@
+package paxos.compression;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import paxos.communication.CommLayer;
+import paxos.communication.Member;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CompressingMessengerTest {
+    private final CommLayer underlying = mock(CommLayer.class);
+    private final CommLayer.MessageListener listener = mock(CommLayer.MessageListener.class);
+    private final CompressingMessenger messenger = new CompressingMessenger(underlying, 100);
+    private final Member member = new Member(2440);
+
+    public CompressingMessengerTest() throws Exception {
+        messenger.setListener(listener);
+    }
+
+    @Test
+    public void testCompressingLargeMessages() throws Exception {
+        byte[] message = compressibleMessage(10000);
+
+        messenger.sendTo(member, message);
+
+        byte[] sent = captureSent();
+        assertTrue(sent.length < 1000);
+        assertEquals(message.length - sent.length, messenger.getBytesSaved());
+        messenger.receive(sent);
+        verify(listener).receive(message);
+    }
+
+    @Test
+    public void testNotCompressingSmallMessages() throws Exception {
+        byte[] message = compressibleMessage(99);
+
+        messenger.sendTo(member, message);
+
+        verify(underlying).sendTo(member, message);
+        assertEquals(0, messenger.getBytesSaved());
+    }
+
+    @Test
+    public void testPassingSmallBuffersThrough() throws Exception {
+        ByteBuffer message = ByteBuffer.wrap(compressibleMessage(99));
+
+        messenger.sendTo(member, message);
+
+        verify(underlying).sendTo(member, message);
+    }
+
+    @Test
+    public void testBackingOffWhenMessagesDoNotCompress() throws Exception {
+        byte[] random = new byte[10000];
+        new Random(1).nextBytes(random);
+        byte[] compressible = compressibleMessage(10000);
+
+        messenger.sendTo(member, random);
+        messenger.sendTo(member, compressible);
+        verify(underlying).sendTo(member, random);
+        verify(underlying).sendTo(member, compressible);
+
+        messenger.sendTo(member, compressible);
+        assertTrue(messenger.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void testWrappingMessagesThatLookCompressed() throws Exception {
+        byte[] message = {'Z', 0, 0, 0, 1, 2};
+
+        messenger.sendTo(member, message);
+        messenger.receive(captureSent());
+
+        verify(listener).receive(message);
+    }
+
+    @Test
+    public void testForwardingTicks() throws Exception {
+        messenger.tick(1000);
+
+        verify(listener).tick(1000);
+    }
+
+    @Test
+    public void testSendingUncompressedOnceClosed() throws Exception {
+        byte[] message = compressibleMessage(10000);
+
+        messenger.close();
+        messenger.sendTo(member, message);
+
+        verify(underlying).close();
+        verify(underlying).sendTo(member, message);
+    }
+
+    @Test
+    public void testDroppingMessagesThatLookCompressedOnceClosed() throws Exception {
+        messenger.close();
+        messenger.sendTo(member, new byte[] {'Z', 0, 0, 0, 1, 2});
+
+        verify(underlying, never()).sendTo(eq(member), any(byte[].class));
+    }
+
+    @Test
+    public void testDroppingMessagesClaimingAHugeLength() throws Exception {
+        messenger.receive(new byte[] {'Z', 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2});
+        messenger.receive(new byte[] {'Z', (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2});
+
+        verifyZeroInteractions(listener);
+    }
+
+    private byte[] captureSent() {
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(underlying).sendTo(eq(member), captor.capture());
+        return captor.getValue();
+    }
+
+    private byte[] compressibleMessage(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) message[i] = (byte) "{\"command\": \"set\"}".charAt(i % 18);
+        return message;
+    }
+}
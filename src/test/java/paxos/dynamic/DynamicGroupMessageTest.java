@@ -0,0 +1,24 @@
+package paxos.dynamic;
+
+import org.junit.Test;
+import paxos.PaxosUtils;
+
+import static org.junit.Assert.*;
+
+public class DynamicGroupMessageTest {
+    public static final byte[] MESSAGE = "Hello".getBytes();
+
+    @Test
+    public void testEncodingAndPeeking() throws Exception {
+        byte[] bytes = DynamicGroupMessage.encode(42, MESSAGE);
+
+        assertTrue(DynamicGroupMessage.isGroupMessage(bytes));
+        assertEquals(42, DynamicGroupMessage.peekGroupId(bytes));
+        assertArrayEquals(MESSAGE, DynamicGroupMessage.extractMessage(bytes));
+    }
+
+    @Test
+    public void testRecognizingOtherMessages() throws Exception {
+        assertFalse(DynamicGroupMessage.isGroupMessage(PaxosUtils.serialize(new JoinRequest(null))));
+    }
+}
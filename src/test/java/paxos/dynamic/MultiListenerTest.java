@@ -21,4 +21,18 @@ public class MultiListenerTest {
         Mockito.verify(listener1).receive(MESSAGE);
         Mockito.verify(listener2).receive(MESSAGE);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTicking() throws Exception {
+        CommLayer.MessageListener listener1 = Mockito.mock(CommLayer.MessageListener.class);
+        CommLayer.MessageListener listener2 = Mockito.mock(CommLayer.MessageListener.class);
+        MultiListener multiListener = new MultiListener();
+        multiListener.addListener(listener1);
+        multiListener.addListener(listener2);
+
+        multiListener.tick(1000);
+
+        Mockito.verify(listener1).tick(1000);
+        Mockito.verify(listener2).tick(1000);
+    }
+}
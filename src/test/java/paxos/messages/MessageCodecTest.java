@@ -0,0 +1,184 @@
+package paxos.messages;
+
+import org.junit.Test;
+import paxos.Acceptance;
+import paxos.GroupMembership;
+import paxos.PaxosUtils;
+import paxos.communication.Member;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+    private final Member member = new Member(InetAddress.getByName("192.168.0.1"), 2440);
+
+    public MessageCodecTest() throws Exception {}
+
+    @Test
+    public void testEncodingAccept() throws Exception {
+        Accept accept = (Accept) roundTrip(new Accept(3, 300, "hello", 2000001, member, 299));
+
+        assertEquals(3, accept.viewNo);
+        assertEquals(300, accept.seqNo);
+        assertEquals(2000001, accept.msgId);
+        assertEquals("hello", accept.message);
+        assertEquals(member, accept.sender);
+        assertEquals(299, accept.committed);
+    }
+
+    @Test
+    public void testEncodingAccepted() throws Exception {
+        Accepted accepted = (Accepted) roundTrip(new Accepted(3, 300, 7, new HashSet<Long>(Arrays.asList(1l, 200l)), member, 299, 250));
+
+        assertEquals(3, accepted.viewNo);
+        assertEquals(300, accepted.seqNo);
+        assertEquals(7, accepted.msgId);
+        assertEquals(new HashSet<Long>(Arrays.asList(1l, 200l)), accepted.missingSuccess);
+        assertEquals(member, accepted.sender);
+        assertEquals(299, accepted.acceptedUpTo);
+        assertEquals(250, accepted.committed);
+        assertEquals(-1, ((Accepted) roundTrip(new Accepted(3, 0, 7, Collections.<Long>emptySet(), member))).acceptedUpTo);
+    }
+
+    @Test
+    public void testEncodingAcceptRanges() throws Exception {
+        AcceptRange range = (AcceptRange) roundTrip(new AcceptRange(3, 300, Arrays.<Serializable>asList("a", new NoOp()), new long[] {7, 0}, member, 299));
+
+        assertEquals(3, range.viewNo);
+        assertEquals(300, range.firstSeqNo);
+        assertEquals(301, range.getLastSeqNo());
+        assertEquals(Arrays.<Serializable>asList("a", new NoOp()), range.messages);
+        assertArrayEquals(new long[] {7, 0}, range.msgIds);
+        assertEquals(member, range.sender);
+        assertEquals(299, range.committed);
+    }
+
+    @Test
+    public void testEncodingViewAccepted() throws Exception {
+        Map<Long, Acceptance> accepted = new HashMap<Long, Acceptance>();
+        accepted.put(1l, new Acceptance(2, "a", 10));
+        accepted.put(2l, new Acceptance(2, new NoOp(), 0));
+
+        ViewAccepted viewAccepted = (ViewAccepted) roundTrip(new ViewAccepted(5, accepted, member));
+
+        assertEquals(5, viewAccepted.viewNumber);
+        assertEquals(member, viewAccepted.sender);
+        assertEquals("a", viewAccepted.accepted.get(1l).message);
+        assertEquals(10, viewAccepted.accepted.get(1l).msgId);
+        assertEquals(new NoOp(), viewAccepted.accepted.get(2l).message);
+    }
+
+    @Test
+    public void testEncodingOtherMessages() throws Exception {
+        assertEquals(Long.MAX_VALUE, ((Abort) roundTrip(new Abort(1, Long.MAX_VALUE))).seqNo);
+        assertEquals(-1, ((Success) roundTrip(new Success(-1, "hi", 2))).seqNo);
+        assertEquals(member, ((SuccessAck) roundTrip(new SuccessAck(2, member))).getSender());
+        assertEquals(member, ((NewView) roundTrip(new NewView(member, 4))).leader);
+        assertEquals(member, ((Heartbeat) roundTrip(new Heartbeat(member))).sender);
+        assertEquals(-1, ((Heartbeat) roundTrip(new Heartbeat(member))).committed);
+        assertEquals(299, ((Heartbeat) roundTrip(new Heartbeat(member, 3, 299))).committed);
+        assertEquals(2000001, ((Busy) roundTrip(new Busy(2000001))).msgId);
+        assertNull(((BroadcastRequest) roundTrip(new BroadcastRequest(null, 1))).message);
+    }
+
+    @Test
+    public void testCarryingBytePayloadsAsTheyAre() throws Exception {
+        byte[] payload = {(byte) 0xAC, (byte) 0xED, 0, 5};
+        byte[] encoded = MessageCodec.encode(new Accept(3, 300, payload, 7, member));
+
+        assertArrayEquals(payload, (byte[]) ((Accept) MessageCodec.decode(encoded)).message);
+        assertTrue(encoded.length < MessageCodec.encode(new Accept(3, 300, "", 7, member)).length + payload.length);
+        assertEquals(new NoOp(), ((Success) roundTrip(new Success(1, new NoOp(), 0))).message);
+    }
+
+    @Test
+    public void testEncodingBatches() throws Exception {
+        Batch batch = new Batch(Arrays.<Serializable>asList("a", new byte[] {1, 2}, new Date(42)), new long[] {7, 8, 9});
+
+        Batch decoded = (Batch) ((Success) roundTrip(new Success(1, batch, 7))).message;
+
+        assertEquals(3, decoded.size());
+        assertEquals("a", decoded.getMessage(0));
+        assertArrayEquals(new byte[] {1, 2}, (byte[]) decoded.getMessage(1));
+        assertEquals(new Date(42), decoded.getMessage(2));
+        assertEquals(9, decoded.getMsgId(2));
+    }
+
+    @Test
+    public void testFallingBackToJavaSerialization() throws Exception {
+        assertEquals(42, ((Date) roundTrip(new Date(42))).getTime());
+        assertEquals("hello", MessageCodec.decode(PaxosUtils.serialize("hello")));
+    }
+
+    @Test
+    public void testEncodingIsMoreCompactThanJavaSerialization() throws Exception {
+        Accept accept = new Accept(3, 300, "hello", 2000001, member);
+        assertTrue(MessageCodec.encode(accept).length * 4 < PaxosUtils.serialize(accept).length);
+    }
+
+    @Test
+    public void testEncodingIntoABuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        MessageCodec.encodeAccepted(buffer, 3, 300, 7, Collections.<Long>emptySet(), member, -1, -1, null);
+
+        assertArrayEquals(MessageCodec.encode(new Accepted(3, 300, 7, Collections.<Long>emptySet(), member)),
+                Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testEncodingIntoASmallBuffer() throws Exception {
+        MessageCodec.encode(new Accept(3, 300, "hello", 2000001, member), ByteBuffer.allocate(16));
+    }
+
+    @Test
+    public void testPeekingAtTheHeader() throws Exception {
+        byte[] accepted = MessageCodec.encode(new Accepted(3, 300, 7, Collections.<Long>emptySet(), member));
+
+        assertEquals(SpecialMessage.MessageType.ACCEPTED, MessageCodec.peekType(accepted));
+        assertEquals(3, MessageCodec.peekViewNumber(accepted));
+        assertEquals(300, MessageCodec.peekSeqNo(accepted));
+        assertNull(MessageCodec.peekType(PaxosUtils.serialize(new Date(42))));
+    }
+
+    @Test
+    public void testReferringToMembersByPosition() throws Exception {
+        Member other = new Member(InetAddress.getByName("192.168.0.2"), 2440);
+        GroupMembership membership = new GroupMembership(new ArrayList<Member>(Arrays.asList(other, member)), member, 7);
+        SuccessAck ack = new SuccessAck(2, other);
+
+        byte[] encoded = MessageCodec.encode(ack, membership);
+
+        assertTrue(encoded.length < MessageCodec.encode(ack).length);
+        assertEquals(other, ((SuccessAck) MessageCodec.decode(encoded, membership)).getSender());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRejectingMembersOfAnotherEpoch() throws Exception {
+        List<Member> members = new ArrayList<Member>(Arrays.asList(member));
+        byte[] encoded = MessageCodec.encode(new Heartbeat(member), new GroupMembership(members, member, 1));
+
+        MessageCodec.decode(encoded, new GroupMembership(members, member, 2));
+    }
+
+    @Test
+    public void testRejectingInvalidAddressLengths() throws Exception {
+        byte[] encoded = MessageCodec.encode(new Heartbeat(member));
+        encoded[17] = (byte) 0x80; // the length of the address, right after the header
+
+        try {
+            MessageCodec.decode(encoded);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Invalid address length 128", e.getMessage());
+        }
+    }
+
+    private Object roundTrip(java.io.Serializable message) {
+        return MessageCodec.decode(MessageCodec.encode(message));
+    }
+}
@@ -0,0 +1,56 @@
+package paxos.messages;
+
+import org.junit.Test;
+import paxos.communication.Member;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SeqNoRangesTest {
+    @Test
+    public void testMergingAdjacentRanges() throws Exception {
+        SeqNoRanges ranges = new SeqNoRanges();
+        ranges.addRange(1, 3);
+        ranges.addRange(3, 5);
+        ranges.addRange(10, 11);
+
+        assertEquals(2, ranges.getRangeCount());
+        assertEquals(5, ranges.size());
+        assertEquals(Arrays.asList(1l, 2l, 3l, 4l, 10l), new ArrayList<Long>(ranges));
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        SeqNoRanges ranges = new SeqNoRanges();
+        ranges.addRange(5, 8);
+        ranges.addRange(100, 1000000);
+
+        assertFalse(ranges.contains(4l));
+        assertTrue(ranges.contains(5l));
+        assertTrue(ranges.contains(7l));
+        assertFalse(ranges.contains(8l));
+        assertTrue(ranges.contains(999999l));
+        assertFalse(ranges.contains(1000000l));
+    }
+
+    @Test
+    public void testEncodingLongRunsCompactly() throws Exception {
+        SeqNoRanges missing = new SeqNoRanges();
+        missing.addRange(1000, 101000);
+        byte[] encoded = MessageCodec.encode(new Accepted(1, 200000, 1, missing, new Member(2440)));
+
+        assertTrue(encoded.length < 64);
+        Accepted decoded = (Accepted) MessageCodec.decode(encoded);
+        assertEquals(100000, decoded.missingSuccess.size());
+        assertTrue(decoded.missingSuccess.contains(100999l));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectingRangesOutOfOrder() throws Exception {
+        SeqNoRanges ranges = new SeqNoRanges();
+        ranges.addRange(5, 8);
+        ranges.addRange(1, 2);
+    }
+}